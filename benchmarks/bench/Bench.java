@@ -0,0 +1,111 @@
+package bench;
+
+import java.util.Arrays;
+
+/**
+ * This class measures the mean time of an operation.
+ *
+ * DESCRIPTION:
+ * The operation is first executed during the warmup time so that the JIT compiles it, then during the measurement
+ * time. The result of every execution is accumulated into a sink printed at the end, so that the JIT cannot remove
+ * the measured code.
+ *
+ * Authors: Samuel Mayor, Alexandra Korukova
+ */
+public final class Bench {
+
+    /**
+     * The operation to measure
+     */
+    @FunctionalInterface
+    public interface Operation {
+        /**
+         * Executes the operation once
+         * @return any value depending on the work done
+         * @throws Exception if the operation fails, which stops the benchmark
+         */
+        long run() throws Exception;
+    }
+
+    // default warmup and measurement time, in milliseconds
+    private static final long WARMUP_MILLIS = Long.getLong("bench.warmup", 1000);
+    private static final long MEASURE_MILLIS = Long.getLong("bench.measure", 2000);
+
+    // accumulates the results of the operations
+    private static long sink;
+
+    private Bench() {
+    }
+
+    /**
+     * Measures the operation and prints its mean time
+     * @param name the name printed with the result
+     * @param operation the operation to measure
+     * @return the mean time of the operation, in nanoseconds
+     * @throws Exception if the operation fails
+     */
+    public static double measure(String name, Operation operation) throws Exception {
+        loop(operation, WARMUP_MILLIS);
+        double nanosPerOp = loop(operation, MEASURE_MILLIS);
+        System.out.printf("%-50s %12.1f ns/op%n", name, nanosPerOp);
+        return nanosPerOp;
+    }
+
+    /**
+     * Executes the operation in batches during the given time
+     * @param operation the operation to execute
+     * @param millis the time to spend, in milliseconds
+     * @return the mean time of the operation, in nanoseconds
+     * @throws Exception if the operation fails
+     */
+    private static double loop(Operation operation, long millis) throws Exception {
+        long deadline = System.nanoTime() + millis * 1_000_000L;
+        long count = 0;
+        long start = System.nanoTime();
+        long now;
+        do {
+            for (int i = 0; i < 1000; i++) {
+                sink += operation.run();
+            }
+            count += 1000;
+            now = System.nanoTime();
+        } while (now < deadline);
+        return (double) (now - start) / count;
+    }
+
+    /**
+     * Prints the percentiles of the latencies
+     * @param name the name printed with the result
+     * @param latencies the measured latencies, in nanoseconds. Sorted by this method
+     * @param count number of the measured latencies stored in the array
+     */
+    public static void printPercentiles(String name, long[] latencies, int count) {
+        if (count == 0) {
+            System.out.printf("%-50s no sample%n", name);
+            return;
+        }
+        Arrays.sort(latencies, 0, count);
+        System.out.printf("%-50s p50 %9.1f us  p90 %9.1f us  p99 %9.1f us  p999 %9.1f us  max %9.1f us%n", name,
+                percentile(latencies, count, 0.5), percentile(latencies, count, 0.9),
+                percentile(latencies, count, 0.99), percentile(latencies, count, 0.999),
+                latencies[count - 1] / 1000.0);
+    }
+
+    /**
+     * @param sorted the sorted latencies, in nanoseconds
+     * @param count number of the latencies
+     * @param quantile the quantile, between 0 and 1
+     * @return the latency at the quantile, in microseconds
+     */
+    private static double percentile(long[] sorted, int count, double quantile) {
+        int index = (int) Math.ceil(quantile * count) - 1;
+        return sorted[Math.max(0, Math.min(count - 1, index))] / 1000.0;
+    }
+
+    /**
+     * Prints the sink, so that the results of the operations are used
+     */
+    public static void done() {
+        System.out.println("(sink " + sink + ")");
+    }
+}
@@ -0,0 +1,118 @@
+package bench;
+
+import lamport.AcknowledgementMessage;
+import lamport.LiberationMessage;
+import lamport.Message;
+import lamport.MessageCodec;
+import lamport.MessageType;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+
+/**
+ * This benchmark compares the encodings of the {@link Message}s exchanged by the value managers:
+ * - the default Java serialization, as used before the messages became {@link java.io.Externalizable}
+ * (reproduced by {@link LegacyMessage})
+ * - the {@link java.io.Externalizable} form, written by the {@link ObjectOutputStream} of an RMI call
+ * - the binary form of {@link MessageCodec}, written to a reused {@link ByteBuffer}
+ * For each of them, prints the number of bytes of a message and the encode/decode time.
+ *
+ * Usage: java bench.SerializationBenchmark
+ *
+ * Authors: Samuel Mayor, Alexandra Korukova
+ */
+public class SerializationBenchmark {
+
+    public static void main(String... args) throws Exception {
+        Message[] messages = {
+                new Message(1234, MessageType.REQUEST, 4001),
+                new AcknowledgementMessage(1235, 4002, 1234),
+                new LiberationMessage(1240, MessageType.LIBERATION, 4001, 1234, 42)
+        };
+        for (Message message : messages) {
+            String name = message.getClass().getSimpleName();
+            LegacyMessage legacy = LegacyMessage.of(message);
+
+            byte[] legacyBytes = serialize(legacy);
+            byte[] externalBytes = serialize(message);
+            ByteBuffer buffer = ByteBuffer.allocate(MessageCodec.encodedSize(message));
+            System.out.printf("%s: %d bytes (default), %d bytes (externalizable), %d bytes (codec)%n", name,
+                    legacyBytes.length, externalBytes.length, MessageCodec.encodedSize(message));
+
+            Bench.measure(name + " encode default", () -> serialize(legacy).length);
+            Bench.measure(name + " encode externalizable", () -> serialize(message).length);
+            Bench.measure(name + " encode codec", () -> {
+                buffer.clear();
+                MessageCodec.encode(message, buffer);
+                return buffer.position();
+            });
+            Bench.measure(name + " decode default",
+                    () -> ((LegacyMessage) deserialize(legacyBytes)).timestamp);
+            Bench.measure(name + " decode externalizable",
+                    () -> ((Message) deserialize(externalBytes)).getTimestamp());
+            Bench.measure(name + " decode codec", () -> {
+                buffer.rewind();
+                return MessageCodec.decode(buffer).getTimestamp();
+            });
+        }
+        Bench.done();
+    }
+
+    /**
+     * Serializes the object with its own {@link ObjectOutputStream}, as an RMI call does for its arguments
+     * @param object the object to serialize
+     * @return the serialized bytes
+     * @throws IOException if the serialization fails
+     */
+    private static byte[] serialize(Object object) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(object);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @param bytes the serialized bytes
+     * @return the deserialized object
+     * @throws IOException if the deserialization fails
+     * @throws ClassNotFoundException if the class of the object is unknown
+     */
+    private static Object deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return in.readObject();
+        }
+    }
+
+    /**
+     * The messages as they were serialized before: {@link Serializable} with the default serialization
+     */
+    private static class LegacyMessage implements Serializable {
+        private int timestamp;
+        private MessageType messageType;
+        private int emitterPort;
+
+        static LegacyMessage of(Message message) {
+            LegacyMessage legacy = message instanceof LiberationMessage
+                    ? new LegacyLiberationMessage(((LiberationMessage) message).getNewValue())
+                    : new LegacyMessage();
+            legacy.timestamp = message.getTimestamp();
+            legacy.messageType = message.getMessageType();
+            legacy.emitterPort = message.getEmitterPort();
+            return legacy;
+        }
+    }
+
+    private static class LegacyLiberationMessage extends LegacyMessage {
+        private int newValue;
+
+        LegacyLiberationMessage(int newValue) {
+            this.newValue = newValue;
+        }
+    }
+}
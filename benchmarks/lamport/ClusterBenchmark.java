@@ -0,0 +1,168 @@
+package lamport;
+
+import bench.Bench;
+import utils.Constants;
+
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This benchmark runs a cluster of N {@link ValueManager}s in the current JVM, each one bound in its own registry on
+ * a local port and linked with the others as in a real deployment, and measures the latency of the writes.
+ *
+ * DESCRIPTION:
+ * - C writers (the contention level) set values in a closed loop, each one on its own {@link ValueManager}.
+ * A writer sets a value, waits until its {@link ValueManager} commits it, then sets the next one.
+ * - Prints the percentiles of the time between the call to {@link ValueManager#setValue(int)} and the commit, and
+ * the number of the commits per second.
+ * - The options of the {@link ValueManager}s (see {@link Options}) can be given after the other arguments, batching
+ * must stay disabled since every written value is waited for.
+ * - The writers write to K distinct keys (system property bench.keys, default 1): writer i writes to the key i % K.
+ * The writes of different keys commit concurrently.
+ *
+ * Usage: java lamport.ClusterBenchmark [N,N,...] [C,C,...|all] [duration in seconds] [name=value...]
+ * - default N: 2,4,8,16,32,64
+ * - default C: 1 and N ("all")
+ * - default duration: 5 seconds
+ *
+ * Authors: Samuel Mayor, Alexandra Korukova
+ */
+public class ClusterBenchmark {
+
+    // the registry port of the first ValueManager of a cluster
+    private static final int BASE_PORT = 21000;
+
+    // maximum time a writer waits for the commit of its value
+    private static final long COMMIT_TIMEOUT_SECONDS = 30;
+
+    // number of the distinct keys written
+    private static final int KEYS = Integer.getInteger("bench.keys", 1);
+
+    public static void main(String... args) throws Exception {
+        String nodes = args.length > 0 ? args[0] : "2,4,8,16,32,64";
+        String contentions = args.length > 1 ? args[1] : "1,all";
+        long durationMillis = args.length > 2 ? Long.parseLong(args[2]) * 1000 : 5000;
+        Options options = Options.parse(args, Math.min(args.length, 3));
+        // the value managers log every message
+        Logger.getLogger("").setLevel(Level.WARNING);
+
+        int cluster = 0;
+        for (String n : nodes.split(",")) {
+            int nbNodes = Integer.parseInt(n);
+            for (String c : contentions.split(",")) {
+                int writers = "all".equals(c) ? nbNodes : Math.min(nbNodes, Integer.parseInt(c));
+                // every cluster gets its own ports: the registries of the previous ones cannot be reused
+                run(BASE_PORT + cluster * 200, nbNodes, writers, durationMillis, options);
+                cluster++;
+            }
+        }
+    }
+
+    /**
+     * Starts a cluster, runs the writers and prints the results
+     * @param basePort the registry port of the first {@link ValueManager}
+     * @param nbNodes number of the {@link ValueManager}s
+     * @param writers number of the writers
+     * @param durationMillis duration of the measurement
+     * @param options the settings of the {@link ValueManager}s
+     * @throws Exception if the cluster cannot be started
+     */
+    private static void run(int basePort, int nbNodes, int writers, long durationMillis, Options options)
+            throws Exception {
+        ValueManager[] managers = new ValueManager[nbNodes];
+        Registry[] registries = new Registry[nbNodes];
+        for (int i = 0; i < nbNodes; i++) {
+            int[] ports = new int[nbNodes - 1];
+            for (int j = 0, k = 0; j < nbNodes; j++) {
+                if (j != i) {
+                    ports[k++] = basePort + j;
+                }
+            }
+            managers[i] = new ValueManager(basePort + i, nbNodes, ports, options);
+            registries[i] = LocateRegistry.createRegistry(basePort + i);
+            registries[i].bind(Constants.REMOTE_OBJ_NAME, managers[i]);
+        }
+        for (ValueManager manager : managers) {
+            manager.lookup();
+        }
+
+        // the pending write of every writer: the value and its commit latch
+        Map<Integer, CountDownLatch> pending = new ConcurrentHashMap<>();
+        for (ValueManager manager : managers) {
+            manager.setCommitListener((key, value, timestamp, writerPort) -> {
+                CountDownLatch latch = pending.get(value);
+                if (latch != null) {
+                    latch.countDown();
+                }
+            });
+        }
+
+        long[][] latencies = new long[writers][1 << 16];
+        int[] counts = new int[writers];
+        AtomicInteger failures = new AtomicInteger();
+        long deadline = System.nanoTime() + durationMillis * 1_000_000L;
+        Thread[] threads = new Thread[writers];
+        for (int w = 0; w < writers; w++) {
+            int writer = w;
+            threads[w] = new Thread(() -> {
+                int sequence = 0;
+                while (System.nanoTime() < deadline) {
+                    // the values are unique in the cluster
+                    int value = ++sequence * writers + writer;
+                    CountDownLatch latch = new CountDownLatch(1);
+                    pending.put(value, latch);
+                    long start = System.nanoTime();
+                    try {
+                        managers[writer].set(writer % KEYS, value);
+                        if (!latch.await(COMMIT_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                            failures.incrementAndGet();
+                            break;
+                        }
+                    } catch (Exception e) {
+                        failures.incrementAndGet();
+                        break;
+                    } finally {
+                        pending.remove(value);
+                    }
+                    long latency = System.nanoTime() - start;
+                    if (counts[writer] == latencies[writer].length) {
+                        latencies[writer] = Arrays.copyOf(latencies[writer], counts[writer] * 2);
+                    }
+                    latencies[writer][counts[writer]++] = latency;
+                }
+            }, "writer-" + w);
+            threads[w].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        int total = 0;
+        for (int count : counts) {
+            total += count;
+        }
+        long[] all = new long[total];
+        for (int w = 0, offset = 0; w < writers; w++) {
+            System.arraycopy(latencies[w], 0, all, offset, counts[w]);
+            offset += counts[w];
+        }
+        String name = "setValue N=" + nbNodes + " C=" + writers + " K=" + Math.min(writers, KEYS);
+        Bench.printPercentiles(name, all, total);
+        System.out.printf("%-50s %12.1f commits/s%s%n", name, total * 1000.0 / durationMillis,
+                failures.get() > 0 ? " (" + failures.get() + " writers failed)" : "");
+
+        for (int i = 0; i < nbNodes; i++) {
+            managers[i].shutdown();
+            UnicastRemoteObject.unexportObject(registries[i], true);
+        }
+    }
+}
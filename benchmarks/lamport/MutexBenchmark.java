@@ -0,0 +1,179 @@
+package lamport;
+
+import bench.Bench;
+
+/**
+ * This benchmark measures the {@link MutualExclusion} algorithms without any network: the messages are handed
+ * directly to the algorithm and the messages it sends are dropped.
+ *
+ * DESCRIPTION:
+ * For every number of nodes N and every contention level C (number of the remote requests pending in the queue of
+ * the node), measures:
+ * - cycle: one critical section of a local request. The local request is sent, C newer remote requests arrive,
+ * the acknowledgements (replies, grants of the quorum for Maekawa) arrive and the request gets the critical section,
+ * then the C remote requests are liberated (not for Ricart-Agrawala). Covers the eligibility check done on every
+ * acknowledgement.
+ * - request+liberation: handling of one remote request (and its acknowledgement) and of its liberation, with C
+ * other remote requests pending.
+ *
+ * Usage: java lamport.MutexBenchmark [N,N,...] [C,C,...]
+ * - default N: 2,4,8,16,32,64
+ * - default C: 0,1 and N-1 ("all")
+ *
+ * Authors: Samuel Mayor, Alexandra Korukova
+ */
+public class MutexBenchmark {
+
+    // the port of the measured node, the ports of the remote nodes are the next ones
+    private static final int PORT = 1000;
+
+    public static void main(String... args) throws Exception {
+        int[] nodes = args.length > 0 ? parse(args[0]) : new int[]{2, 4, 8, 16, 32, 64};
+        String contentions = args.length > 1 ? args[1] : "0,1,all";
+        for (int n : nodes) {
+            for (String c : contentions.split(",")) {
+                int contention = "all".equals(c) ? n - 1 : Math.min(n - 1, Integer.parseInt(c));
+                String params = " N=" + n + " C=" + contention;
+                for (MutexAlgorithm algorithm : MutexAlgorithm.values()) {
+                    FakeContext context = new FakeContext(n);
+                    MutualExclusion mutex = algorithm.create(context, new Options());
+                    int[] granters = algorithm == MutexAlgorithm.MAEKAWA
+                            ? MaekawaMutex.quorum(PORT, context.getPeers()) : context.getPeers();
+                    Bench.measure(algorithm + " cycle" + params, () -> cycle(context, mutex, granters, contention));
+                }
+                FakeContext context = new FakeContext(n);
+                MutualExclusion mutex = MutexAlgorithm.LAMPORT.create(context, new Options());
+                for (int i = 0; i < contention; i++) {
+                    mutex.onMessage(new Message(context.tick(), MessageType.REQUEST, PORT + 1 + i));
+                }
+                Bench.measure(MutexAlgorithm.LAMPORT + " request+liberation" + params,
+                        () -> requestLiberation(context, mutex, contention));
+            }
+        }
+        Bench.done();
+    }
+
+    /**
+     * One critical section of a local request with C concurrent remote requests
+     * @return the number of the messages sent by the algorithm
+     */
+    private static long cycle(FakeContext context, MutualExclusion mutex, int[] granters, int contention) {
+        long sent = context.sent;
+        int requestTimestamp = context.tick();
+        mutex.request(requestTimestamp);
+        int[] remoteTimestamps = new int[contention];
+        for (int i = 0; i < contention; i++) {
+            remoteTimestamps[i] = context.tick();
+            mutex.onMessage(new Message(remoteTimestamps[i], MessageType.REQUEST, PORT + 1 + i));
+        }
+        for (int granter : granters) {
+            if (granter != PORT) {
+                mutex.onMessage(new ReplyMessage(context.tick(), granter, requestTimestamp, 0, 0, 0));
+            }
+        }
+        // the Ricart-Agrawala algorithm liberates the critical section with the deferred replies
+        for (int i = 0; i < contention && !(mutex instanceof RicartAgrawalaMutex); i++) {
+            mutex.onMessage(new LiberationMessage(context.tick(), MessageType.LIBERATION, PORT + 1 + i,
+                    remoteTimestamps[i], i));
+        }
+        return context.sent - sent;
+    }
+
+    /**
+     * Handling of a remote request and of its liberation
+     * @return the number of the messages sent by the algorithm
+     */
+    private static long requestLiberation(FakeContext context, MutualExclusion mutex, int contention) {
+        long sent = context.sent;
+        int emitter = PORT + 1 + (contention % (context.nbNodes - 1));
+        int requestTimestamp = context.tick();
+        mutex.onMessage(new Message(requestTimestamp, MessageType.REQUEST, emitter));
+        mutex.onMessage(new LiberationMessage(context.tick(), MessageType.LIBERATION, emitter, requestTimestamp, 1));
+        return context.sent - sent;
+    }
+
+    private static int[] parse(String list) {
+        String[] items = list.split(",");
+        int[] values = new int[items.length];
+        for (int i = 0; i < items.length; i++) {
+            values[i] = Integer.parseInt(items[i]);
+        }
+        return values;
+    }
+
+    /**
+     * A node of N nodes dropping the messages it sends
+     */
+    private static class FakeContext implements MutualExclusion.Context {
+        private final int nbNodes;
+        private int localTime;
+        private long sent;
+        private ValueSnapshot snapshot = ValueSnapshot.INITIAL;
+
+        FakeContext(int nbNodes) {
+            this.nbNodes = nbNodes;
+        }
+
+        int tick() {
+            return ++localTime;
+        }
+
+        @Override
+        public int getPort() {
+            return PORT;
+        }
+
+        @Override
+        public int getNbNodes() {
+            return nbNodes;
+        }
+
+        @Override
+        public int[] getPeers() {
+            int[] peers = new int[nbNodes - 1];
+            for (int i = 0; i < peers.length; i++) {
+                peers[i] = PORT + 1 + i;
+            }
+            return peers;
+        }
+
+        @Override
+        public int getLocalTime() {
+            return localTime;
+        }
+
+        @Override
+        public long getNanoTime() {
+            return System.nanoTime();
+        }
+
+        @Override
+        public void send(int port, Message message) {
+            sent++;
+        }
+
+        @Override
+        public void broadcast(Message message) {
+            sent += nbNodes - 1;
+        }
+
+        @Override
+        public LiberationMessage enterCriticalSection(int requestTimestamp) {
+            commit(requestTimestamp, tick(), PORT);
+            return new LiberationMessage(localTime, MessageType.LIBERATION, PORT, requestTimestamp,
+                    snapshot.getValue());
+        }
+
+        @Override
+        public void commit(int value, int timestamp, int writerPort) {
+            if (snapshot.isOlderThan(timestamp, writerPort)) {
+                snapshot = new ValueSnapshot(value, timestamp, writerPort);
+            }
+        }
+
+        @Override
+        public ValueSnapshot getSnapshot() {
+            return snapshot;
+        }
+    }
+}
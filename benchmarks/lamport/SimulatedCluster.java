@@ -0,0 +1,401 @@
+package lamport;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * This program simulates a cluster of N nodes running a {@link MutualExclusion} algorithm in the current thread,
+ * over a simulated network, to measure the algorithms with hundreds of nodes in seconds and to reproduce their
+ * orderings exactly.
+ *
+ * DESCRIPTION:
+ * - Every node is what a {@link ValueManager} offers to its algorithms: a logical clock and, for every key, an
+ * instance of the algorithm with the committed value (see {@link MutualExclusion.Context}). There is no RMI, no
+ * thread and no socket.
+ * - The network delivers every message after the latency plus a uniform random jitter, in virtual time. The messages
+ * of a channel (sender, receiver) are delivered in the order they were sent, unless reordering is enabled: then a
+ * message may overtake the previous ones, which the algorithms do not expect.
+ * - The events (deliveries, new requests) are executed one at a time in the order of their virtual times, then in
+ * the order they were scheduled, and the random numbers come from the given seed: a run with the same settings
+ * always produces the same execution.
+ * - Every writing node keeps P requests pending for every key: once a request gets the critical section, the node
+ * sends a new one, after the think time. The run stops after the given number of critical sections.
+ * - The mutual exclusion is checked at every entry in the critical section: the node must have seen the last value
+ * committed for the key, otherwise two nodes held the critical section at the same time. A run whose events are
+ * exhausted before the end is reported stalled (deadlock).
+ * - Prints the critical sections per second of virtual time, the messages per critical section, the percentiles of
+ * the virtual time from a request to its critical section, and the real time of the simulation.
+ *
+ * Usage: java lamport.SimulatedCluster [N,N,...] [name=value...]
+ * - default N: 4,16,64,256
+ * - latency=T - latency of the network in microseconds (default 100)
+ * - jitter=T - maximum random delay added to the latency in microseconds (default 20)
+ * - reorder=true|false - if true, the messages of a channel may overtake each other (default false)
+ * - seed=S - the seed of the random numbers (default 1)
+ * - keys=K - number of the keys (default 1)
+ * - pending=P - number of the requests every node keeps pending for every key (default 1)
+ * - sections=C - number of the critical sections of a run (default 10000)
+ * - writers=W - number of the nodes sending requests, the first ones (default N)
+ * - think=T - virtual time in microseconds between a critical section and the next request of the node (default 0)
+ * - the options of the {@link ValueManager}s (see {@link Options}), such as mutex=lamport|ricart-agrawala|maekawa.
+ * All the algorithms are run if none is given.
+ *
+ * Authors: Samuel Mayor, Alexandra Korukova
+ */
+public class SimulatedCluster {
+
+    // the port of the first node, the ports of the other ones are the next ones
+    private static final int BASE_PORT = 1000;
+
+    public static void main(String... args) {
+        String nodes = args.length > 0 && !args[0].contains("=") ? args[0] : "4,16,64,256";
+        Map<String, String> settings = new HashMap<>();
+        List<String> options = new ArrayList<>();
+        boolean mutexGiven = false;
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator < 0) {
+                continue;
+            }
+            String name = arg.substring(0, separator);
+            switch (name) {
+                case "latency":
+                case "jitter":
+                case "reorder":
+                case "seed":
+                case "keys":
+                case "pending":
+                case "sections":
+                case "writers":
+                case "think":
+                    settings.put(name, arg.substring(separator + 1));
+                    break;
+                default:
+                    mutexGiven |= "mutex".equals(name);
+                    options.add(arg);
+            }
+        }
+        for (String n : nodes.split(",")) {
+            int nbNodes = Integer.parseInt(n);
+            if (mutexGiven) {
+                run(nbNodes, settings, options);
+            } else {
+                for (MutexAlgorithm algorithm : MutexAlgorithm.values()) {
+                    List<String> withMutex = new ArrayList<>(options);
+                    withMutex.add("mutex=" + algorithm.name().toLowerCase().replace('_', '-'));
+                    run(nbNodes, settings, withMutex);
+                }
+            }
+        }
+    }
+
+    /**
+     * Simulates one cluster and prints its results
+     * @param nbNodes number of the nodes
+     * @param settings the settings of the simulation
+     * @param options the options of the nodes
+     */
+    private static void run(int nbNodes, Map<String, String> settings, List<String> options) {
+        Simulation simulation = new Simulation(nbNodes, settings,
+                Options.parse(options.toArray(new String[0]), 0));
+        long start = System.nanoTime();
+        simulation.run();
+        double realSeconds = (System.nanoTime() - start) / 1e9;
+        double virtualSeconds = simulation.now / 1e9;
+        String outcome = simulation.violation != null ? "UNSAFE: " + simulation.violation
+                : simulation.sections < simulation.targetSections ? "STALLED" : "safe";
+        System.out.println(String.format("%s N=%d: %d critical sections, %.1f/s virtual, %.1f messages each, "
+                        + "%.2f s real (%.0f messages/s), request to critical section %s, %s",
+                simulation.options.getMutex(), nbNodes, simulation.sections, simulation.sections / virtualSeconds,
+                simulation.messages / (double) Math.max(1, simulation.sections), realSeconds,
+                simulation.messages / realSeconds, simulation.requestLatency.summary(), outcome));
+    }
+
+    /**
+     * The state of a simulated cluster
+     */
+    private static class Simulation {
+
+        private final Options options;
+
+        /**
+         * The settings of the network, in nanoseconds of virtual time
+         */
+        private final long networkLatency;
+        private final long jitter;
+        private final boolean reorder;
+        private final Random random;
+
+        private final int pending;
+        private final int targetSections;
+        private final int writers;
+        private final long think;
+
+        /**
+         * The nodes, the index of a node is its port minus {@link #BASE_PORT}
+         */
+        private final Node[] nodes;
+
+        /**
+         * The time of the last message of every channel, by sender then receiver, to keep the channels FIFO
+         */
+        private final long[][] channelTimes;
+
+        /**
+         * The events to execute, by virtual time then order of scheduling
+         */
+        private final PriorityQueue<Event> events = new PriorityQueue<>();
+        private long scheduled;
+
+        /**
+         * The current virtual time, in nanoseconds
+         */
+        private long now;
+
+        /**
+         * The last value committed for every key, by any node
+         */
+        private final ValueSnapshot[] lastCommits;
+
+        private int sections;
+        private long messages;
+        private String violation;
+
+        /**
+         * Virtual time from the sending of a request to its critical section
+         */
+        private final LatencyHistogram requestLatency = new LatencyHistogram();
+
+        Simulation(int nbNodes, Map<String, String> settings, Options options) {
+            this.options = options;
+            networkLatency = Long.parseLong(settings.getOrDefault("latency", "100")) * 1000;
+            jitter = Long.parseLong(settings.getOrDefault("jitter", "20")) * 1000;
+            reorder = Boolean.parseBoolean(settings.getOrDefault("reorder", "false"));
+            random = new Random(Long.parseLong(settings.getOrDefault("seed", "1")));
+            pending = Integer.parseInt(settings.getOrDefault("pending", "1"));
+            targetSections = Integer.parseInt(settings.getOrDefault("sections", "10000"));
+            writers = Math.min(nbNodes, Integer.parseInt(settings.getOrDefault("writers", Integer.toString(nbNodes))));
+            think = Long.parseLong(settings.getOrDefault("think", "0")) * 1000;
+            int keys = Integer.parseInt(settings.getOrDefault("keys", "1"));
+            lastCommits = new ValueSnapshot[keys];
+            Arrays.fill(lastCommits, ValueSnapshot.INITIAL);
+            channelTimes = new long[nbNodes][nbNodes];
+            nodes = new Node[nbNodes];
+            for (int i = 0; i < nbNodes; i++) {
+                nodes[i] = new Node(this, i, keys);
+            }
+        }
+
+        /**
+         * Sends the first requests, then executes the events until the end of the run
+         */
+        void run() {
+            for (int n = 0; n < writers; n++) {
+                for (Shard shard : nodes[n].shards) {
+                    for (int i = 0; i < pending; i++) {
+                        schedule(0, shard::request);
+                    }
+                }
+            }
+            while (sections < targetSections && violation == null && !events.isEmpty()) {
+                Event event = events.poll();
+                now = event.time;
+                event.action.run();
+            }
+        }
+
+        /**
+         * Schedules an action
+         * @param delay the delay of the action in nanoseconds of virtual time
+         * @param action the action
+         */
+        void schedule(long delay, Runnable action) {
+            events.add(new Event(now + delay, scheduled++, action));
+        }
+
+        /**
+         * Sends a message through the simulated network
+         * @param from the index of the sender
+         * @param to the index of the receiver
+         * @param message the message, its key already set
+         */
+        void send(int from, int to, Message message) {
+            messages++;
+            long time = now + networkLatency + (jitter > 0 ? (long) (random.nextDouble() * jitter) : 0);
+            if (!reorder) {
+                time = Math.max(time, channelTimes[from][to]);
+                channelTimes[from][to] = time;
+            }
+            Node receiver = nodes[to];
+            events.add(new Event(time, scheduled++, () -> receiver.receive(message)));
+        }
+    }
+
+    /**
+     * A simulated node
+     */
+    private static class Node {
+
+        private final Simulation simulation;
+        private final int index;
+        private final int port;
+        private final int[] peers;
+        private final Shard[] shards;
+        private int localTime;
+
+        Node(Simulation simulation, int index, int keys) {
+            this.simulation = simulation;
+            this.index = index;
+            port = BASE_PORT + index;
+            int nbNodes = simulation.nodes.length;
+            peers = new int[nbNodes - 1];
+            for (int i = 0, p = 0; i < nbNodes; i++) {
+                if (i != index) {
+                    peers[p++] = BASE_PORT + i;
+                }
+            }
+            shards = new Shard[keys];
+            for (int key = 0; key < keys; key++) {
+                shards[key] = new Shard(this, key);
+            }
+        }
+
+        /**
+         * Handles a message delivered by the network, as {@link ValueManager} does
+         */
+        void receive(Message message) {
+            localTime = Math.max(localTime + 1, message.getTimestamp() + 1);
+            shards[message.getKey()].mutex.onMessage(message);
+        }
+    }
+
+    /**
+     * A key of a simulated node: the context of its instance of the algorithm
+     */
+    private static class Shard implements MutualExclusion.Context {
+
+        private final Node node;
+        private final int key;
+        private final MutualExclusion mutex;
+        private ValueSnapshot snapshot = ValueSnapshot.INITIAL;
+
+        /**
+         * The virtual times the pending requests were sent, by timestamp
+         */
+        private final Map<Integer, Long> requestTimes = new HashMap<>();
+
+        Shard(Node node, int key) {
+            this.node = node;
+            this.key = key;
+            mutex = node.simulation.options.getMutex().create(this, node.simulation.options);
+        }
+
+        /**
+         * Sends a new request
+         */
+        void request() {
+            node.localTime++;
+            requestTimes.put(node.localTime, node.simulation.now);
+            mutex.request(node.localTime);
+        }
+
+        @Override
+        public int getPort() {
+            return node.port;
+        }
+
+        @Override
+        public int getNbNodes() {
+            return node.simulation.nodes.length;
+        }
+
+        @Override
+        public int[] getPeers() {
+            return node.peers;
+        }
+
+        @Override
+        public int getLocalTime() {
+            return node.localTime;
+        }
+
+        @Override
+        public long getNanoTime() {
+            return node.simulation.now;
+        }
+
+        @Override
+        public void send(int port, Message message) {
+            message.setKey(key);
+            node.simulation.send(node.index, port - BASE_PORT, message);
+        }
+
+        @Override
+        public void broadcast(Message message) {
+            message.setKey(key);
+            for (int peer : node.peers) {
+                node.simulation.send(node.index, peer - BASE_PORT, message);
+            }
+        }
+
+        @Override
+        public LiberationMessage enterCriticalSection(int requestTimestamp) {
+            Simulation simulation = node.simulation;
+            ValueSnapshot last = simulation.lastCommits[key];
+            if (simulation.violation == null && (snapshot.getTimestamp() != last.getTimestamp()
+                    || snapshot.getWriterPort() != last.getWriterPort())) {
+                simulation.violation = "node " + node.port + " entered the critical section of key " + key
+                        + " at " + simulation.now + " ns without the value committed by " + last.getWriterPort()
+                        + " at " + last.getTimestamp();
+            }
+            simulation.requestLatency.record(simulation.now - requestTimes.remove(requestTimestamp));
+            simulation.sections++;
+            node.localTime++;
+            int value = simulation.sections;
+            commit(value, node.localTime, node.port);
+            simulation.lastCommits[key] = snapshot;
+            // the next request is sent once the critical section is liberated
+            simulation.schedule(simulation.think, this::request);
+            return new LiberationMessage(node.localTime, MessageType.LIBERATION, node.port, requestTimestamp, value);
+        }
+
+        @Override
+        public void commit(int value, int timestamp, int writerPort) {
+            if (snapshot.isOlderThan(timestamp, writerPort)) {
+                snapshot = new ValueSnapshot(value, timestamp, writerPort);
+            }
+        }
+
+        @Override
+        public ValueSnapshot getSnapshot() {
+            return snapshot;
+        }
+    }
+
+    /**
+     * An action scheduled at some virtual time
+     */
+    private static class Event implements Comparable<Event> {
+
+        private final long time;
+        private final long order;
+        private final Runnable action;
+
+        Event(long time, long order, Runnable action) {
+            this.time = time;
+            this.order = order;
+            this.action = action;
+        }
+
+        @Override
+        public int compareTo(Event other) {
+            int byTime = Long.compare(time, other.time);
+            return byTime != 0 ? byTime : Long.compare(order, other.order);
+        }
+    }
+}
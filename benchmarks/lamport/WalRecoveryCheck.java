@@ -0,0 +1,247 @@
+package lamport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * This program checks the recovery of a {@link WriteAheadLog} after a crash, in the current thread and with the
+ * random numbers of the given seed: a run always produces the same records.
+ *
+ * DESCRIPTION:
+ * - Every scenario logs commits of random values and clock reservations in a new directory, the way a
+ * {@link ValueManager} does, then "crashes": the log is left without being closed, so no snapshot is written at the
+ * stop. The files are possibly damaged, then a new log is opened on them and recovered.
+ * - The recovered values must be the last ones committed before the first damaged record, and the recovered clock
+ * must not be lower than any timestamp used before the crash.
+ * - Scenarios: a clean crash, a torn last record (its end zeroed) followed by new commits, a checksum mismatch in
+ * the middle of the log, a snapshot followed by commits, a crash between the snapshot and the start of the new log,
+ * and a log filled several times (snapshots written when it is full).
+ * - Prints every scenario with OK or FAILED and the difference, exits with 1 if one failed.
+ *
+ * Usage: java lamport.WalRecoveryCheck [seed]
+ * - default seed: 1
+ *
+ * Authors: Samuel Mayor, Alexandra Korukova
+ */
+public class WalRecoveryCheck {
+
+    // the port naming the files, the writers of the values are this one and the next ones
+    private static final int PORT = 1000;
+    private static final int WRITERS = 3;
+    private static final int KEYS = 64;
+    // maximum increment of the clock between two commits
+    private static final int MAX_TICKS = 100;
+
+    private static Random random;
+    private static boolean failed;
+
+    public static void main(String... args) throws IOException {
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : 1;
+        random = new Random(seed);
+        Path root = Files.createTempDirectory("wal-check");
+        try {
+            cleanCrash(root.resolve("clean"));
+            tornLastRecord(root.resolve("torn"));
+            corruptedRecord(root.resolve("corrupted"));
+            snapshotThenReplay(root.resolve("snapshot"));
+            crashDuringSnapshot(root.resolve("during-snapshot"));
+            fullLog(root.resolve("full"));
+        } finally {
+            try (Stream<Path> paths = Files.walk(root)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+        System.exit(failed ? 1 : 0);
+    }
+
+    /**
+     * Commits values and crashes: everything is recovered
+     */
+    private static void cleanCrash(Path directory) throws IOException {
+        Node node = new Node(directory);
+        node.commit(1000);
+        check("clean crash", new Node(directory), node.values, node.clock);
+    }
+
+    /**
+     * Zeroes the end of the last record: the previous ones are recovered, and the new records written after the
+     * recovery replace the torn one
+     */
+    private static void tornLastRecord(Path directory) throws IOException {
+        Node node = new Node(directory);
+        node.commit(999);
+        Map<Integer, ValueSnapshot> expected = new HashMap<>(node.values);
+        int position = node.commit();
+        int end = node.wal.getPosition();
+        overwrite(directory, position + (end - position) / 2, new byte[end - position - (end - position) / 2]);
+        Node recovered = new Node(directory);
+        check("torn last record", recovered, expected, node.clock);
+        recovered.commit(100);
+        check("commits after a torn record", new Node(directory), recovered.values, recovered.clock);
+    }
+
+    /**
+     * Flips a bit of a record in the middle of the log: the replay stops at it
+     */
+    private static void corruptedRecord(Path directory) throws IOException {
+        Node node = new Node(directory);
+        node.commit(500);
+        Map<Integer, ValueSnapshot> expected = new HashMap<>(node.values);
+        int position = node.commit();
+        node.commit(499);
+        // the value of the record
+        int offset = position + 1 + Integer.BYTES;
+        byte[] bytes = read(directory, offset);
+        bytes[0] ^= 1;
+        overwrite(directory, offset, bytes);
+        check("checksum mismatch", new Node(directory), expected, node.clock);
+    }
+
+    /**
+     * Writes a snapshot in the middle of the commits: the snapshot is read, then the log of the new epoch replayed
+     */
+    private static void snapshotThenReplay(Path directory) throws IOException {
+        Node node = new Node(directory);
+        node.commit(500);
+        node.wal.snapshot();
+        node.commit(500);
+        check("snapshot then replay", new Node(directory), node.values, node.clock);
+    }
+
+    /**
+     * Restores the header of the previous epoch after a snapshot, as if the crash happened before the new log
+     * started: the records of the previous epoch are ignored, the snapshot holds them
+     */
+    private static void crashDuringSnapshot(Path directory) throws IOException {
+        Node node = new Node(directory);
+        node.commit(500);
+        byte[] header = read(directory, 0);
+        node.wal.snapshot();
+        overwrite(directory, 0, header);
+        check("crash during the snapshot", new Node(directory), node.values, node.clock);
+    }
+
+    /**
+     * Commits values until the log is full several times: the snapshots are written by the log itself
+     */
+    private static void fullLog(Path directory) throws IOException {
+        Node node = new Node(directory);
+        node.commit(1_000_000);
+        check("full log", new Node(directory), node.values, node.clock);
+    }
+
+    /**
+     * Compares a recovered node with the state before the crash, prints the result
+     * @param scenario the name of the scenario
+     * @param recovered the node opened after the crash
+     * @param expected the values expected to be recovered
+     * @param clock the last clock before the crash
+     */
+    private static void check(String scenario, Node recovered, Map<Integer, ValueSnapshot> expected, int clock) {
+        StringBuilder difference = new StringBuilder();
+        for (int key = 0; key < KEYS; key++) {
+            ValueSnapshot value = expected.getOrDefault(key, ValueSnapshot.INITIAL);
+            ValueSnapshot actual = recovered.values.getOrDefault(key, ValueSnapshot.INITIAL);
+            if (value.getValue() != actual.getValue() || value.getTimestamp() != actual.getTimestamp()
+                    || value.getWriterPort() != actual.getWriterPort()) {
+                difference.append(" key ").append(key).append(": ").append(actual).append(" instead of ")
+                        .append(value);
+            }
+        }
+        if (recovered.clock < clock) {
+            difference.append(" clock ").append(recovered.clock).append(" lower than ").append(clock);
+        }
+        failed |= difference.length() > 0;
+        System.out.println(String.format("%-28s %s%s", scenario, difference.length() > 0 ? "FAILED:" : "OK",
+                difference));
+    }
+
+    /**
+     * @return the 4 bytes of the log file at the given position
+     */
+    private static byte[] read(Path directory, int position) throws IOException {
+        try (FileChannel channel = FileChannel.open(logPath(directory), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES);
+            channel.read(buffer, position);
+            return buffer.array();
+        }
+    }
+
+    /**
+     * Writes bytes to the log file at the given position, through the file: the mapping of the crashed log sees them
+     */
+    private static void overwrite(Path directory, int position, byte[] bytes) throws IOException {
+        try (FileChannel channel = FileChannel.open(logPath(directory), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(bytes), position);
+        }
+    }
+
+    private static Path logPath(Path directory) {
+        return directory.resolve("node-" + PORT + ".wal");
+    }
+
+    /**
+     * A node logging its commits, as a {@link ValueManager} with a WAL does
+     */
+    private static class Node {
+
+        private final Map<Integer, ValueSnapshot> values = new HashMap<>();
+        private final WriteAheadLog wal;
+        private int clock;
+
+        /**
+         * Constructor. Opens and recovers the log of the directory
+         * @param directory the directory of the files
+         * @throws IOException if the files cannot be opened
+         */
+        Node(Path directory) throws IOException {
+            wal = new WriteAheadLog(directory, PORT, () -> clock, listener -> values.forEach((key, value) ->
+                    listener.committed(key, value.getValue(), value.getTimestamp(), value.getWriterPort())));
+            clock = wal.recover(this::apply);
+        }
+
+        /**
+         * Commits values of random keys
+         * @param count the number of the commits
+         */
+        void commit(int count) {
+            for (int i = 0; i < count; i++) {
+                commit();
+            }
+        }
+
+        /**
+         * Commits a value of a random key: the clock is reserved, then the commit logged
+         * @return the position of the commit record in the log
+         */
+        int commit() {
+            clock += 1 + random.nextInt(MAX_TICKS);
+            wal.reserveClock(clock);
+            int key = random.nextInt(KEYS);
+            int value = random.nextInt();
+            int writerPort = PORT + random.nextInt(WRITERS);
+            apply(key, value, clock, writerPort);
+            int position = wal.getPosition();
+            wal.logCommit(key, value, clock, writerPort);
+            return position;
+        }
+
+        /**
+         * Keeps a committed value, unless a more recent one is stored
+         */
+        private void apply(int key, int value, int timestamp, int writerPort) {
+            if (values.getOrDefault(key, ValueSnapshot.INITIAL).isOlderThan(timestamp, writerPort)) {
+                values.put(key, new ValueSnapshot(value, timestamp, writerPort));
+            }
+        }
+    }
+}
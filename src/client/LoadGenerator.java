@@ -0,0 +1,228 @@
+package client;
+
+import lamport.IValueManager;
+import lamport.LatencyHistogram;
+import lamport.LatencySummary;
+import lamport.ReadConsistency;
+import utils.Constants;
+
+import java.net.MalformedURLException;
+import java.rmi.Naming;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * This class loads the {@link IValueManager}s of a system with concurrent clients and reports the throughput and the
+ * latencies of their reads and writes, started by {@link Site} in its "load" mode.
+ *
+ * DESCRIPTION:
+ * - M clients are started for every {@link IValueManager}, each one in its own thread. A client reads or writes a
+ * random key, a read with the given probability, until the end of the run.
+ * - Without a target rate, every client sends its next operation as soon as the previous one is answered (closed
+ * loop): the concurrency is the number of the clients. With a target rate, the operations are sent at fixed
+ * intervals, whatever the latencies (open loop): the latency of an operation counts from the time it should have
+ * been sent, so that a slow answer delaying the next operations is not hidden.
+ * - A write is the call to {@link IValueManager#set(int, int)} followed by the wait for the commit of the value, so
+ * that a client of a closed loop has one write in flight at a time. With "await=false", the write is only the call,
+ * which returns once the value is queued: the report says which latency it measured.
+ * - The latencies are counted in {@link LatencyHistogram}s. The report gives, for the reads and the writes, the
+ * throughput and the latency percentiles (p50, p90, p99, p99.9), in microseconds.
+ *
+ * Settings, as "name=value" arguments after "load" (see {@link Site#main(String...)}):
+ * - clients=M - number of the clients per {@link IValueManager}
+ * - reads=F - fraction of the operations which are reads, between 0 and 1
+ * - rate=R - target number of the operations per second, all clients together (0: closed loop)
+ * - duration=S - duration of the run in seconds
+ * - keys=K - number of the distinct keys read and written
+ * - consistency=local|session|ordered - the {@link ReadConsistency} of the reads
+ * - await=true|false - if true (default), every write waits for the commit of its value
+ *
+ * Authors: Samuel Mayor, Alexandra Korukova
+ */
+public class LoadGenerator {
+
+    /**
+     * The remote {@link IValueManager}s loaded and the ports they are listening on
+     */
+    private final List<IValueManager> valueManagers = new ArrayList<>();
+    private final int[] ports;
+
+    private int clients = Constants.LOAD_CLIENTS;
+    private double readRatio = Constants.LOAD_READ_RATIO;
+    private double rate;
+    private long durationSeconds = Constants.LOAD_DURATION_SECONDS;
+    private int keys = Constants.LOAD_KEYS;
+    private ReadConsistency consistency = ReadConsistency.LOCAL;
+    private boolean awaitCommit = true;
+
+    /**
+     * The latencies of the reads and of the writes
+     */
+    private final LatencyHistogram readLatency = new LatencyHistogram();
+    private final LatencyHistogram writeLatency = new LatencyHistogram();
+
+    /**
+     * Number of the operations which failed
+     */
+    private final LongAdder errors = new LongAdder();
+
+    /**
+     * Constructor. Looks up the {@link IValueManager}s
+     * @param ports the ports the {@link IValueManager}s are listening on
+     * @param settings the "name=value" settings
+     * @throws RemoteException if a registry cannot be reached
+     * @throws NotBoundException if a {@link IValueManager} is not bound
+     * @throws MalformedURLException never: the URLs are built from the ports
+     * @throws IllegalArgumentException if a setting is unknown or malformed
+     */
+    public LoadGenerator(int[] ports, String... settings)
+            throws RemoteException, NotBoundException, MalformedURLException {
+        this.ports = ports;
+        for (String setting : settings) {
+            int separator = setting.indexOf('=');
+            if (separator < 0) {
+                throw new IllegalArgumentException("Malformed setting: " + setting);
+            }
+            set(setting.substring(0, separator), setting.substring(separator + 1));
+        }
+        for (int port : ports) {
+            valueManagers.add((IValueManager) Naming.lookup("rmi://" + Constants.SERVER_HOST + ":" + port + "/"
+                    + Constants.REMOTE_OBJ_NAME));
+        }
+    }
+
+    /**
+     * Runs the clients until the end of the run, then prints the report
+     * @throws InterruptedException if the current thread is interrupted while waiting for the clients
+     */
+    public void run() throws InterruptedException {
+        int total = clients * valueManagers.size();
+        // interval in nanoseconds between two operations of a client, 0 in closed loop
+        long interval = rate > 0 ? (long) (total * 1e9 / rate) : 0;
+        long start = System.nanoTime();
+        long end = start + durationSeconds * 1_000_000_000L;
+        System.out.println("Loading " + ports.length + " value managers with " + total + " clients for "
+                + durationSeconds + " s" + (interval > 0 ? " at " + rate + " operations/s" : " (closed loop)"));
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < total; i++) {
+            IValueManager valueManager = valueManagers.get(i % valueManagers.size());
+            // the clients of an open loop are spread over the interval
+            long first = start + (interval * i) / total;
+            Thread thread = new Thread(() -> client(valueManager, first, interval, end), "client-" + i);
+            thread.setDaemon(true);
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        report("get", readLatency, seconds);
+        report(awaitCommit ? "set (until committed)" : "set (until queued)", writeLatency, seconds);
+        System.out.println("errors: " + errors.sum());
+    }
+
+    /**
+     * Sends the operations of a client until the end of the run
+     * @param valueManager the {@link IValueManager} of the client
+     * @param first the time the first operation should be sent, in nanoseconds
+     * @param interval the interval between two operations in nanoseconds, 0 in closed loop
+     * @param end the end of the run, in nanoseconds
+     */
+    private void client(IValueManager valueManager, long first, long interval, long end) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long next = first;
+        while (true) {
+            long now = System.nanoTime();
+            long sent = now;
+            if (interval > 0) {
+                if (next >= end) {
+                    return;
+                }
+                while (next > now) {
+                    LockSupport.parkNanos(next - now);
+                    now = System.nanoTime();
+                }
+                sent = next;
+                next += interval;
+            } else if (now >= end) {
+                return;
+            }
+            int key = random.nextInt(keys);
+            boolean read = random.nextDouble() < readRatio;
+            try {
+                if (read) {
+                    if (consistency == ReadConsistency.LOCAL) {
+                        valueManager.get(key);
+                    } else {
+                        valueManager.get(key, consistency);
+                    }
+                } else {
+                    long writeId = valueManager.set(key, random.nextInt());
+                    if (awaitCommit && valueManager.awaitCommit(writeId, Constants.READ_TIMEOUT_MILLIS) < 0) {
+                        errors.increment();
+                        continue;
+                    }
+                }
+            } catch (RemoteException e) {
+                errors.increment();
+                continue;
+            }
+            (read ? readLatency : writeLatency).record(System.nanoTime() - sent);
+        }
+    }
+
+    /**
+     * Prints the throughput and the latencies of an operation
+     * @param operation the name of the operation
+     * @param latency the latencies of the operation
+     * @param seconds the duration of the run in seconds
+     */
+    private static void report(String operation, LatencyHistogram latency, double seconds) {
+        LatencySummary summary = latency.summary();
+        System.out.println(String.format("%s: %.1f operations/s, %s", operation, summary.getCount() / seconds,
+                summary));
+    }
+
+    /**
+     * Sets the setting
+     * @param name the name of the setting
+     * @param value the value of the setting
+     * @throws IllegalArgumentException if the setting is unknown or its value is malformed
+     */
+    private void set(String name, String value) {
+        switch (name) {
+            case "clients":
+                clients = Integer.parseInt(value);
+                break;
+            case "reads":
+                readRatio = Double.parseDouble(value);
+                break;
+            case "rate":
+                rate = Double.parseDouble(value);
+                break;
+            case "duration":
+                durationSeconds = Long.parseLong(value);
+                break;
+            case "keys":
+                keys = Integer.parseInt(value);
+                break;
+            case "consistency":
+                consistency = ReadConsistency.valueOf(value.toUpperCase());
+                break;
+            case "await":
+                awaitCommit = Boolean.parseBoolean(value);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown setting: " + name);
+        }
+        if (clients < 1 || keys < 1 || readRatio < 0 || readRatio > 1 || rate < 0 || durationSeconds < 1) {
+            throw new IllegalArgumentException("Invalid setting: " + name + "=" + value);
+        }
+    }
+}
@@ -1,14 +1,15 @@
 package client;
 
 import lamport.IValueManager;
+import lamport.ReadConsistency;
+import lamport.ValueSnapshot;
 import utils.Constants;
 
 import java.net.MalformedURLException;
 import java.rmi.Naming;
 import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
-import java.rmi.registry.LocateRegistry;
-import java.rmi.registry.Registry;
+import java.util.Arrays;
 import java.util.Scanner;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -23,10 +24,15 @@ import java.util.logging.Logger;
  * the manager is listening. Ports must be passed as main program arguments to every {@link Site}.
  * - When the {@link Site} is launched, it connects to the {@link lamport.ValueManager} attributed to it and displays the
  * menu containing commands to be executed by the system (such as print or modify the value).
+ * - The values printed by "p", "s" and "g" are read from a {@link ValueCache} kept up to date by the
+ * {@link lamport.ValueManager}, without a remote call once a key is cached. A {@link lamport.ValueManager} which does
+ * not use the Lamport algorithm refuses the cache: they are then read remotely, as {@link ReadConsistency#LOCAL}
+ * reads.
+ * - In the "load" mode, the {@link Site} runs a {@link LoadGenerator} against one or several
+ * {@link lamport.ValueManager}s instead, and prints the throughput and the latencies measured.
  * REQUIREMENTS:
- * - All the {@link IValueManager}s have to be launched before the {@link Site}s
- * - The linking of the {@link IValueManager}s has to be requested by the user before printing or modifying the value
- * (use "l" command)
+ * - The {@link IValueManager} has to be launched before its {@link Site}. The {@link IValueManager}s link themselves
+ * when they are launched ("l" links the members which are not linked yet)
  *
  * Authors: Samuel Mayor, Alexandra Korukova
  */
@@ -35,13 +41,36 @@ public class Site {
 
     private IValueManager valueManager;
 
+    /**
+     * The cache of the values, null if the {@link IValueManager} refused it
+     */
+    private ValueCache cache;
+
     /**
      * @param args
-     *  - args[0] - associated {@link lamport.ValueManager}'s port
+     *  - args[0] - associated {@link lamport.ValueManager}'s port. In the "load" mode, the ports of the loaded
+     *  {@link lamport.ValueManager}s, separated by commas
+     *  - args[1] - optional "load" to run the {@link LoadGenerator}
+     *  - args[2].. - "name=value" settings of the {@link LoadGenerator}
      * @throws RemoteException
      * @throws NotBoundException
      */
     public static void main(String ...args) throws RemoteException, NotBoundException {
+        if (args.length > 1 && "load".equals(args[1])) {
+            String[] portStrs = args[0].split(",");
+            int[] ports = new int[portStrs.length];
+            for (int i = 0; i < ports.length; i++) {
+                ports[i] = Integer.parseInt(portStrs[i]);
+            }
+            try {
+                new LoadGenerator(ports, Arrays.copyOfRange(args, 2, args.length)).run();
+            } catch (MalformedURLException e) {
+                LOG.log(Level.SEVERE, e.getMessage(), e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return;
+        }
         int port = Integer.parseInt(args[0]);
         new Site(port);
     }
@@ -52,47 +81,121 @@ public class Site {
      */
     public void userCommands() throws RemoteException {
         boolean run = true;
-        boolean serversLinked = false;
+        Scanner scanner = new Scanner(System.in);
         while (run) {
             System.out.println("Enter the command you would like to execute: \n" +
                     "- tap \"l\" to link the nodes of the system between them\n" +
-                    "- tap \"p\" to print the current value\n" +
-                    "- tap \"w\" followed by an integer to set the new value\n" +
+                    "- tap \"p\" to print the current value (cached with mutex=lamport)\n" +
+                    "- tap \"s\" to print the current value with its commit timestamp and writer (cached with " +
+                    "mutex=lamport)\n" +
+                    "- tap \"r\" followed by local, session or ordered to read the value with this consistency\n" +
+                    "- tap \"w\" followed by an integer to set the new value, prints the id of the write\n" +
+                    "- tap \"c\" followed by the id of a write to wait for its commit\n" +
+                    "- tap \"g\" followed by a key to print the value of the key (cached with mutex=lamport)\n" +
+                    "- tap \"k\" followed by a key and an integer to set the new value of the key\n" +
+                    "- tap \"m\" to print the members of the system\n" +
+                    "- tap \"x\" to make the value manager leave the system and quit the program\n" +
                     "- tap \"q\" to quit the program");
-            if(!serversLinked) {
-                System.out.println("NOTE: After all servers are launched, be sure you have linked " +
-                        "the servers between them to insure the system to be executed properly\n" +
-                        "use \"l\" command");
+            if (!scanner.hasNext()) {
+                // end of the input
+                break;
             }
-            Scanner scanner = new Scanner(System.in);
             String command = scanner.next();
             switch (Character.toUpperCase(command.charAt(0))) {
                 case Constants.PRINT: {
-                    int value = valueManager.getValue();
+                    int value = read(Constants.DEFAULT_KEY).getValue();
                     System.out.println(value);
                     break;
                 }
+                case Constants.SNAPSHOT: {
+                    System.out.println(read(Constants.DEFAULT_KEY));
+                    break;
+                }
+                case Constants.READ: {
+                    String consistencyStr = scanner.next();
+                    try {
+                        ReadConsistency consistency = ReadConsistency.valueOf(consistencyStr.toUpperCase());
+                        System.out.println(valueManager.getValue(consistency));
+                        System.out.println("mean " + consistency.name().toLowerCase() + " read latency: "
+                                + valueManager.getReadLatency(consistency) / 1000 + " us");
+                    } catch (IllegalArgumentException e) {
+                        System.out.println(consistencyStr);
+                        System.out.println(Constants.UNKNOWN_COMMAND);
+                    }
+                    break;
+                }
                 case Constants.WRITE: {
                     String valueStr = scanner.next();
                     try {
                         int value = Integer.parseInt(valueStr);
-                        valueManager.setValue(value);
+                        System.out.println("write " + valueManager.setValue(value));
                     } catch (NumberFormatException e) {
                         System.out.println(valueStr);
                         System.out.println(Constants.UNKNOWN_COMMAND);
                     }
                     break;
                 }
+                case Constants.GET_KEY: {
+                    String keyStr = scanner.next();
+                    try {
+                        System.out.println(read(Integer.parseInt(keyStr)).getValue());
+                    } catch (NumberFormatException e) {
+                        System.out.println(keyStr);
+                        System.out.println(Constants.UNKNOWN_COMMAND);
+                    }
+                    break;
+                }
+                case Constants.SET_KEY: {
+                    String keyStr = scanner.next();
+                    String valueStr = scanner.next();
+                    try {
+                        int key = Integer.parseInt(keyStr);
+                        int value = Integer.parseInt(valueStr);
+                        System.out.println("write " + valueManager.set(key, value));
+                    } catch (NumberFormatException e) {
+                        System.out.println(keyStr + " " + valueStr);
+                        System.out.println(Constants.UNKNOWN_COMMAND);
+                    }
+                    break;
+                }
+                case Constants.COMMIT: {
+                    String writeIdStr = scanner.next();
+                    try {
+                        long writeId = Long.parseLong(writeIdStr);
+                        int timestamp = valueManager.awaitCommit(writeId, Constants.READ_TIMEOUT_MILLIS);
+                        System.out.println(timestamp < 0
+                                ? "write " + writeId + " not committed yet"
+                                : "write " + writeId + " committed at " + timestamp);
+                    } catch (RemoteException e) {
+                        System.out.println(e.getMessage());
+                    } catch (NumberFormatException e) {
+                        System.out.println(writeIdStr);
+                        System.out.println(Constants.UNKNOWN_COMMAND);
+                    }
+                    break;
+                }
                 case Constants.LOOKUP: {
                     try {
                         valueManager.lookup();
                     } catch (NotBoundException | MalformedURLException e) {
                         LOG.log(Level.SEVERE, e.getMessage(), e);
                     }
-                    serversLinked = true;
                     LOG.log(Level.INFO, "Value managers linked");
                     break;
                 }
+                case Constants.MEMBERS: {
+                    System.out.println(Arrays.toString(valueManager.getMembers()));
+                    break;
+                }
+                case Constants.LEAVE: {
+                    try {
+                        valueManager.leave();
+                        run = false;
+                    } catch (RemoteException e) {
+                        System.out.println(e.getMessage());
+                    }
+                    break;
+                }
                 case Constants.QUIT: {
                     run = false;
                     break;
@@ -103,17 +206,37 @@ public class Site {
         }
     }
 
+    /**
+     * Reads the value of a key from the cache, or remotely if there is no cache
+     * @param key the key
+     * @return the last value of the key committed, with its commit timestamp and writer
+     * @throws RemoteException if the value cannot be read
+     */
+    private ValueSnapshot read(int key) throws RemoteException {
+        return cache != null ? cache.get(key) : valueManager.get(key, ReadConsistency.LOCAL);
+    }
+
     /**
      * Constructor
      * @param port the associated remote {@link IValueManager}'s port
      */
     public Site(int port) {
         try {
-            Registry registry = LocateRegistry.getRegistry(Constants.SERVER_HOST);
             valueManager = (IValueManager) Naming.lookup("rmi://" + Constants.SERVER_HOST + ":" +
                     port + "/" + Constants.REMOTE_OBJ_NAME);
             LOG.log(Level.INFO, () -> Constants.REMOTE_OBJ_NAME + " is found on port " + port);
-            userCommands();
+            try {
+                cache = new ValueCache(valueManager);
+            } catch (RemoteException e) {
+                LOG.log(Level.WARNING, () -> "The values are not cached: " + e.getMessage());
+            }
+            try {
+                userCommands();
+            } finally {
+                if (cache != null) {
+                    cache.close();
+                }
+            }
         } catch (RemoteException | NotBoundException | MalformedURLException e) {
             LOG.log(Level.SEVERE, e.getMessage(), e);
         }
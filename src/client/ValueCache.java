@@ -0,0 +1,163 @@
+package client;
+
+import lamport.IValueListener;
+import lamport.IValueManager;
+import lamport.ReadConsistency;
+import lamport.ValueSnapshot;
+import utils.Constants;
+
+import java.rmi.NoSuchObjectException;
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class caches the values of an {@link IValueManager} on the client side, kept up to date by the value manager
+ * itself.
+ *
+ * DESCRIPTION:
+ * - The cache is a remote {@link IValueListener} registered with the {@link IValueManager}, which pushes every value
+ * committed to it. A cached value is thus replaced as soon as a newer one is committed, and reading it costs no
+ * remote call.
+ * - A key which is not cached yet is read remotely once, then cached.
+ * - The pushed values and the values read may arrive in any order: a value only replaces an older one (by commit
+ * timestamp, then writer), so the cached values never go back in time.
+ * - The cached values are as recent as the {@link ReadConsistency#LOCAL} reads, delayed by the push.
+ * - The value manager removes the cache if it cannot call it back for a while, and the values it could not push are
+ * lost. The cache registers itself again on the first read after every {@link Constants#VALUE_CACHE_RENEW_MILLIS}:
+ * if it was removed, its values are dropped and read remotely again. A cache removed by mistake thus serves stale
+ * values for a bounded time only.
+ * - The reads are served to one thread of the client, the pushed values arrive from the RMI threads.
+ * - The value manager refuses the cache unless it uses the Lamport algorithm: with the other ones, it does not see
+ * the remote commits until it requests the critical section, so the cache would stay stale.
+ *
+ * Authors: Samuel Mayor, Alexandra Korukova
+ */
+public class ValueCache extends UnicastRemoteObject implements IValueListener {
+
+    private static final long serialVersionUID = 1L;
+
+    private final IValueManager valueManager;
+
+    /**
+     * The time in milliseconds from which the next read registers the cache again
+     */
+    private long renewAt;
+
+    /**
+     * The cached values, by key
+     */
+    private final Map<Integer, ValueSnapshot> values = new ConcurrentHashMap<>();
+
+    /**
+     * Number of the reads served from the cache and remotely
+     */
+    private long hits;
+    private long misses;
+
+    /**
+     * Constructor. Registers the cache with the {@link IValueManager}
+     * @param valueManager the cached {@link IValueManager}
+     * @throws RemoteException if the cache cannot be exported or registered, for instance because the
+     * {@link IValueManager} does not use the Lamport algorithm
+     */
+    public ValueCache(IValueManager valueManager) throws RemoteException {
+        super();
+        this.valueManager = valueManager;
+        try {
+            valueManager.addValueListener(this);
+        } catch (RemoteException e) {
+            unexportObject(this, true);
+            throw e;
+        }
+        renewAt = System.currentTimeMillis() + Constants.VALUE_CACHE_RENEW_MILLIS;
+    }
+
+    /**
+     * Returns the value of the key, from the cache if it is there
+     * @param key the key
+     * @return the last value of the key committed, with its commit timestamp and writer
+     * @throws RemoteException if the cache cannot be registered again, or the key is not cached and cannot be read
+     */
+    public ValueSnapshot get(int key) throws RemoteException {
+        renew();
+        ValueSnapshot snapshot = values.get(key);
+        if (snapshot != null) {
+            hits++;
+            return snapshot;
+        }
+        misses++;
+        return merge(key, valueManager.get(key, ReadConsistency.LOCAL));
+    }
+
+    /**
+     * The implementation of the remote method
+     * @param key the key of the value
+     * @param snapshot the committed value, with its commit timestamp and writer
+     * @throws RemoteException
+     */
+    @Override
+    public void valueCommitted(int key, ValueSnapshot snapshot) throws RemoteException {
+        merge(key, snapshot);
+    }
+
+    /**
+     * Unregisters the cache from the {@link IValueManager} and unexports it
+     */
+    public void close() {
+        try {
+            valueManager.removeValueListener(this);
+        } catch (RemoteException e) {
+            // the value manager is gone, and the listener with it
+        }
+        try {
+            unexportObject(this, true);
+        } catch (NoSuchObjectException e) {
+            // already unexported
+        }
+    }
+
+    /**
+     * Getter
+     * @return number of the reads served from the cache
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * Getter
+     * @return number of the reads served remotely
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Registers the cache again if it is time to. If the {@link IValueManager} had removed it, the values which
+     * could not be pushed are lost: all the cached values are dropped
+     * @throws RemoteException if the cache cannot be registered
+     */
+    private void renew() throws RemoteException {
+        long now = System.currentTimeMillis();
+        if (now < renewAt) {
+            return;
+        }
+        if (valueManager.addValueListener(this)) {
+            values.clear();
+        }
+        renewAt = now + Constants.VALUE_CACHE_RENEW_MILLIS;
+    }
+
+    /**
+     * Caches the value unless a more recent one is cached
+     * @param key the key of the value
+     * @param snapshot the value
+     * @return the value cached
+     */
+    private ValueSnapshot merge(int key, ValueSnapshot snapshot) {
+        return values.merge(key, snapshot, (cached, received) ->
+                cached.isOlderThan(received.getTimestamp(), received.getWriterPort()) ? received : cached);
+    }
+}
@@ -0,0 +1,213 @@
+package lamport;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.function.IntConsumer;
+
+/**
+ * This class keeps track of the acknowledgements (or replies) received for the pending local requests of a
+ * {@link MutualExclusion} algorithm.
+ *
+ * DESCRIPTION:
+ * - Every peer has an index: its position in the sorted array of the ports of the peers.
+ * - Every pending local request has a {@link BitSet} of the indexes of the peers which acknowledged it. A duplicated
+ * acknowledgement sets an already set bit, so it cannot make a request look acknowledged by all the peers.
+ * - The local requests are kept in the order they were emitted, which is the order of their timestamps.
+ * - A peer declared failed is removed: its bit is set for every pending and future request, so the requests are
+ * acknowledged by all the live peers.
+ * - A peer joining the system is added as if it had acknowledged all the pending requests: only the newer requests
+ * wait for its acknowledgement.
+ *
+ * Authors: Samuel Mayor, Alexandra Korukova
+ */
+class AckTracker {
+
+    /**
+     * The ports of the peers, sorted
+     */
+    private int[] peers;
+
+    /**
+     * The pending local requests, the oldest first
+     */
+    private final Deque<Pending> pending = new ArrayDeque<>();
+
+    /**
+     * The indexes of the removed peers
+     */
+    private BitSet removed = new BitSet();
+
+    /**
+     * Constructor
+     * @param peers the ports of the peers
+     */
+    AckTracker(int[] peers) {
+        this.peers = peers.clone();
+        Arrays.sort(this.peers);
+    }
+
+    /**
+     * Adds a local request, newer than all the pending ones
+     * @param timestamp the timestamp of the request
+     */
+    void add(int timestamp) {
+        pending.addLast(new Pending(timestamp, (BitSet) removed.clone()));
+    }
+
+    /**
+     * Removes a peer: the requests do not wait for its acknowledgement anymore
+     * @param port the port of the peer
+     */
+    void removePeer(int port) {
+        int index = Arrays.binarySearch(peers, port);
+        if (index < 0) {
+            return;
+        }
+        removed.set(index);
+        for (Pending request : pending) {
+            request.acks.set(index);
+        }
+    }
+
+    /**
+     * Adds a peer: the requests added from now on wait for its acknowledgement
+     * @param port the port of the peer
+     */
+    void addPeer(int port) {
+        int index = Arrays.binarySearch(peers, port);
+        if (index >= 0) {
+            // a removed peer joining again
+            removed.clear(index);
+            return;
+        }
+        index = -index - 1;
+        int[] larger = new int[peers.length + 1];
+        System.arraycopy(peers, 0, larger, 0, index);
+        larger[index] = port;
+        System.arraycopy(peers, index, larger, index + 1, peers.length - index);
+        peers = larger;
+        removed = insertBit(removed, index);
+        for (Pending request : pending) {
+            request.acks = insertBit(request.acks, index);
+            request.acks.set(index);
+        }
+    }
+
+    /**
+     * Records the acknowledgement of a local request
+     * @param timestamp the timestamp of the acknowledged request
+     * @param port the port of the peer which acknowledged it
+     * @return true if the request is pending
+     */
+    boolean acknowledge(int timestamp, int port) {
+        int index = Arrays.binarySearch(peers, port);
+        for (Pending request : pending) {
+            if (request.timestamp == timestamp) {
+                if (index >= 0) {
+                    request.acks.set(index);
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Records the acknowledgement of all the local requests older than the given timestamp
+     * @param timestamp the timestamp
+     * @param port the port of the peer which acknowledged the requests
+     */
+    void acknowledgeOlder(int timestamp, int port) {
+        int index = Arrays.binarySearch(peers, port);
+        if (index < 0) {
+            return;
+        }
+        for (Pending request : pending) {
+            if (request.timestamp >= timestamp) {
+                return;
+            }
+            request.acks.set(index);
+        }
+    }
+
+    /**
+     * Performs the action for the timestamp of every pending local request, the oldest first
+     * @param action the action
+     */
+    void forEachTimestamp(IntConsumer action) {
+        for (Pending request : pending) {
+            action.accept(request.timestamp);
+        }
+    }
+
+    /**
+     * @return true if there is no pending local request
+     */
+    boolean isEmpty() {
+        return pending.isEmpty();
+    }
+
+    /**
+     * @return number of the pending local requests
+     */
+    int size() {
+        return pending.size();
+    }
+
+    /**
+     * @return the timestamp of the oldest pending local request. There must be one
+     */
+    int firstTimestamp() {
+        return pending.getFirst().timestamp;
+    }
+
+    /**
+     * @return the timestamp of the newest pending local request. There must be one
+     */
+    int lastTimestamp() {
+        return pending.getLast().timestamp;
+    }
+
+    /**
+     * @return true if the oldest pending local request is acknowledged by all the peers. There must be one
+     */
+    boolean isFirstAcknowledged() {
+        return pending.getFirst().acks.cardinality() == peers.length;
+    }
+
+    /**
+     * Removes the oldest pending local request
+     * @return its timestamp
+     */
+    int removeFirst() {
+        return pending.removeFirst().timestamp;
+    }
+
+    /**
+     * @param bits indexes of peers
+     * @param index the index of a new peer
+     * @return the same peers, with the indexes from the given one shifted by one
+     */
+    private static BitSet insertBit(BitSet bits, int index) {
+        BitSet shifted = new BitSet();
+        for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+            shifted.set(i < index ? i : i + 1);
+        }
+        return shifted;
+    }
+
+    /**
+     * A pending local request and the peers which acknowledged it
+     */
+    private static class Pending {
+        private final int timestamp;
+        private BitSet acks;
+
+        Pending(int timestamp, BitSet acks) {
+            this.timestamp = timestamp;
+            this.acks = acks;
+        }
+    }
+}
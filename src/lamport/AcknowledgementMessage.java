@@ -0,0 +1,68 @@
+package lamport;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+/**
+ * This class represents an acknowledgement message sent by the {@link IValueManager} when it receives a request.
+ * As a node may have several requests pending at the same time, the acknowledgement references the request it
+ * answers by the request's timestamp
+ *
+ * Authors: Samuel Mayor, Alexandra Korukova
+ */
+public class AcknowledgementMessage extends Message {
+
+    private static final long serialVersionUID = 1L;
+
+    // the timestamp of the acknowledged request
+    private int requestTimestamp;
+
+    /**
+     * Constructor
+     * @param timestamp the logical timestamp of the {@link Message}
+     * @param emitterPort emitter's port
+     * @param requestTimestamp the timestamp of the acknowledged request
+     */
+    public AcknowledgementMessage(int timestamp, int emitterPort, int requestTimestamp) {
+        this(timestamp, MessageType.ACKNOWLEDGEMENT, emitterPort, requestTimestamp);
+    }
+
+    /**
+     * Constructor of the other messages referencing a request (see {@link MaekawaMutex})
+     * @param timestamp the logical timestamp of the {@link Message}
+     * @param messageType message's {@link MessageType}
+     * @param emitterPort emitter's port
+     * @param requestTimestamp the timestamp of the referenced request
+     */
+    public AcknowledgementMessage(int timestamp, MessageType messageType, int emitterPort, int requestTimestamp) {
+        super(timestamp, messageType, emitterPort);
+        this.requestTimestamp = requestTimestamp;
+    }
+
+    /**
+     * Constructor used by the deserialization
+     */
+    public AcknowledgementMessage() {
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        super.writeExternal(out);
+        out.writeInt(requestTimestamp);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        super.readExternal(in);
+        requestTimestamp = in.readInt();
+    }
+
+    /**
+     * Getter
+     * @return the timestamp of the request acknowledged by the emitter
+     */
+    public int getRequestTimestamp() {
+        return requestTimestamp;
+    }
+}
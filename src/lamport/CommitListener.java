@@ -0,0 +1,19 @@
+package lamport;
+
+/**
+ * Listens to the values committed on a {@link ValueManager}, local or remote ones.
+ * Called from the event loop of the {@link ValueManager}: it must return quickly and must not block
+ *
+ * Authors: Samuel Mayor, Alexandra Korukova
+ */
+interface CommitListener {
+
+    /**
+     * Called once a value is committed
+     * @param key the key of the value
+     * @param value the committed value
+     * @param timestamp the logical timestamp of the commit
+     * @param writerPort the port of the node which committed the value
+     */
+    void committed(int key, int value, int timestamp, int writerPort);
+}
@@ -0,0 +1,168 @@
+package lamport;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class represents the single thread applying all the changes to the state of a {@link ValueManager}.
+ *
+ * DESCRIPTION:
+ * - Any thread (RMI threads handling the incoming {@link Message}s, the client's requests) may submit a task.
+ * The tasks are pushed to a lock-free multiple producers / single consumer queue.
+ * - The tasks are executed one after another, in the order they were submitted, by the event loop thread. As the state
+ * of the {@link ValueManager} is only touched by this thread, no further synchronization is needed.
+ * - The loop keeps track of the number of queued tasks and of the time spent executing them, exposed by the
+ * {@link ValueManagerMetrics}.
+ *
+ * Authors: Samuel Mayor, Alexandra Korukova
+ */
+class EventLoop implements Runnable {
+
+    private static final Logger LOG = Logger.getLogger(EventLoop.class.getName());
+
+    /**
+     * The tasks waiting to be executed
+     */
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Number of the tasks waiting to be executed
+     */
+    private final AtomicInteger depth = new AtomicInteger();
+
+    /**
+     * The thread executing the tasks
+     */
+    private final Thread thread;
+
+    /**
+     * Submits the delayed tasks to the loop once their delay has elapsed
+     */
+    private final ScheduledExecutorService timer;
+
+    /**
+     * false once the loop has been asked to stop
+     */
+    private volatile boolean running = true;
+
+    /**
+     * Number of the tasks executed so far
+     */
+    private volatile long processed;
+
+    /**
+     * Total time spent executing the tasks, in nanoseconds
+     */
+    private volatile long busyNanos;
+
+    /**
+     * Constructor
+     * @param name the name of the event loop thread
+     */
+    EventLoop(String name) {
+        thread = new Thread(this, name);
+        thread.setDaemon(true);
+        timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread timerThread = new Thread(r, name + "-timer");
+            timerThread.setDaemon(true);
+            return timerThread;
+        });
+    }
+
+    /**
+     * Starts the event loop thread
+     */
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * Stops the event loop thread. The tasks which are still queued are not executed.
+     */
+    void shutdown() {
+        running = false;
+        timer.shutdownNow();
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Submits the task to be executed by the event loop thread. Never blocks.
+     * @param task the task to execute
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        depth.incrementAndGet();
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Submits the task to be executed by the event loop thread once the delay has elapsed. Never blocks.
+     * @param task the task to execute
+     * @param delayMillis the delay in milliseconds
+     */
+    void schedule(Runnable task, long delayMillis) {
+        timer.schedule(() -> execute(task), delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Submits the task to be executed by the event loop thread periodically, the first time after one period.
+     * Never blocks.
+     * @param task the task to execute
+     * @param periodMillis the period in milliseconds
+     */
+    void scheduleRepeated(Runnable task, long periodMillis) {
+        timer.scheduleAtFixedRate(() -> execute(task), periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Getter
+     * @return number of the tasks waiting to be executed
+     */
+    int getQueueDepth() {
+        return depth.get();
+    }
+
+    /**
+     * Getter
+     * @return number of the tasks executed so far
+     */
+    long getProcessedCount() {
+        return processed;
+    }
+
+    /**
+     * Getter
+     * @return mean time spent executing a task, in nanoseconds
+     */
+    long getMeanServiceNanos() {
+        long count = processed;
+        return count == 0 ? 0 : busyNanos / count;
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            Runnable task = tasks.poll();
+            if (task == null) {
+                LockSupport.park(this);
+                continue;
+            }
+            depth.decrementAndGet();
+            long start = System.nanoTime();
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                LOG.log(Level.SEVERE, e.getMessage(), e);
+            }
+            busyNanos += System.nanoTime() - start;
+            processed++;
+        }
+    }
+}
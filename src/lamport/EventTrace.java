@@ -0,0 +1,135 @@
+package lamport;
+
+import utils.Constants;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * This class records the events of a {@link ValueManager} (messages sent and received, critical sections, changes of
+ * the members) in a binary ring buffer, which the {@link TraceDecoder} turns into a readable timeline afterwards.
+ *
+ * DESCRIPTION:
+ * - The ring buffer is a file of {@link Constants#TRACE_CAPACITY} fixed size records mapped in memory: recording an
+ * event writes a few fields to preallocated memory and never allocates, nor formats anything. The mapped pages
+ * belong to the operating system, which writes them to the file asynchronously, so the trace survives a crash of
+ * the process.
+ * - Once the ring is full, every event overwrites the oldest one. The header holds the number of the events recorded
+ * so far, so the decoder knows where the ring starts.
+ * - Every event carries the logical clock of the {@link ValueManager}, and the messages carry their timestamps: the
+ * decoder matches every received message with its sending and orders the events of all the nodes consistently with
+ * the happens-before relation.
+ * - The heartbeats are not recorded.
+ * - Only used from the event loop.
+ *
+ * File (in the directory given by the "trace" option): node-PORT.trace, starting over at every start.
+ * Header: magic, port, capacity, number of the events recorded (long).
+ * Record: nanoTime (long), logical clock, event, message type, key, peer, message timestamp, value.
+ *
+ * Authors: Samuel Mayor, Alexandra Korukova
+ */
+class EventTrace {
+
+    // identifies the files
+    static final int MAGIC = 0x50525254;
+    // the offset of the number of the events recorded in the header
+    static final int COUNT_OFFSET = 3 * Integer.BYTES;
+    static final int HEADER_SIZE = COUNT_OFFSET + Long.BYTES;
+    // nanoTime, clock, event, message type, 2 unused bytes, key, peer, timestamp, value
+    static final int RECORD_SIZE = Long.BYTES + 2 * Integer.BYTES + 4 * Integer.BYTES;
+
+    // the events
+    static final byte SEND = 1;
+    static final byte BROADCAST = 2;
+    static final byte RECEIVE = 3;
+    static final byte ENTER = 4;
+    static final byte JOIN = 5;
+    static final byte LEAVE = 6;
+    static final byte FAIL = 7;
+
+    private final MappedByteBuffer buffer;
+
+    /**
+     * Number of the records of the ring
+     */
+    private final int capacity;
+
+    /**
+     * Number of the events recorded so far
+     */
+    private long count;
+
+    /**
+     * Constructor. Creates the file, or starts it over if it exists
+     * @param directory the directory of the file
+     * @param port the port of the {@link ValueManager}, naming its file
+     * @throws IOException if the file cannot be created
+     */
+    EventTrace(Path directory, int port) throws IOException {
+        Files.createDirectories(directory);
+        capacity = Constants.TRACE_CAPACITY;
+        // the mapping stays valid once the channel is closed
+        try (FileChannel channel = FileChannel.open(directory.resolve("node-" + port + ".trace"),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity * RECORD_SIZE);
+        }
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(Integer.BYTES, port);
+        buffer.putInt(2 * Integer.BYTES, capacity);
+        buffer.putLong(COUNT_OFFSET, 0);
+    }
+
+    /**
+     * Records a {@link Message} sent or received
+     * @param event {@link #SEND}, {@link #BROADCAST} or {@link #RECEIVE}
+     * @param localTime the logical clock of the {@link ValueManager}
+     * @param message the message
+     * @param peer the receiver of a sent message, the emitter of a received one, 0 for a broadcast
+     */
+    void message(byte event, int localTime, Message message, int peer) {
+        record(event, message.getMessageType(), localTime, message.getKey(), peer, message.getTimestamp(), 0);
+    }
+
+    /**
+     * Records the entry of a local request in the critical section
+     * @param localTime the logical clock of the {@link ValueManager}, the timestamp of the commit
+     * @param key the key of the request
+     * @param requestTimestamp the timestamp of the request
+     * @param value the committed value
+     */
+    void enter(int localTime, int key, int requestTimestamp, int value) {
+        record(ENTER, null, localTime, key, 0, requestTimestamp, value);
+    }
+
+    /**
+     * Records a change of the members of the system
+     * @param event {@link #JOIN}, {@link #LEAVE} or {@link #FAIL}
+     * @param localTime the logical clock of the {@link ValueManager}
+     * @param member the port of the node which joined, left or failed
+     */
+    void member(byte event, int localTime, int member) {
+        record(event, null, localTime, 0, member, 0, 0);
+    }
+
+    /**
+     * Writes a record over the oldest one if the ring is full
+     */
+    private void record(byte event, MessageType type, int localTime, int key, int peer, int timestamp, int value) {
+        int offset = HEADER_SIZE + (int) (count % capacity) * RECORD_SIZE;
+        buffer.putLong(offset, System.nanoTime());
+        buffer.putInt(offset + 8, localTime);
+        buffer.put(offset + 12, event);
+        buffer.put(offset + 13, type == null ? -1 : (byte) type.ordinal());
+        buffer.putInt(offset + 16, key);
+        buffer.putInt(offset + 20, peer);
+        buffer.putInt(offset + 24, timestamp);
+        buffer.putInt(offset + 28, value);
+        count++;
+        buffer.putLong(COUNT_OFFSET, count);
+    }
+}
@@ -0,0 +1,171 @@
+package lamport;
+
+import utils.Constants;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.function.IntConsumer;
+
+/**
+ * This class decides when a peer of a {@link ValueManager} has failed, from the arrival times of its messages
+ * (phi accrual failure detector).
+ *
+ * DESCRIPTION:
+ * - Every message received from a peer is a heartbeat. The peers send a {@link MessageType#HEARTBEAT} message
+ * periodically, so a silent peer is a failed one.
+ * - The intervals between the last {@link Constants#FAILURE_DETECTOR_WINDOW} heartbeats of a peer give their mean and
+ * standard deviation. The suspicion level phi of a peer is -log10 of the probability that its next heartbeat arrives
+ * even later than now, assuming a normal distribution of the intervals (logistic approximation). The mean is
+ * extended by {@link Constants#HEARTBEAT_PAUSE_MILLIS} and the deviation has a minimum, so that a few regular
+ * intervals do not make the detector oversensitive (a pause of the garbage collector).
+ * - A peer is declared failed once its phi reaches {@link Constants#PHI_THRESHOLD}, then it is forgotten: a failed
+ * peer never comes back.
+ * - A peer is only monitored from its first heartbeat, so that the nodes started later are not declared failed.
+ * - Only used from the event loop.
+ *
+ * Authors: Samuel Mayor, Alexandra Korukova
+ */
+class FailureDetector {
+
+    /**
+     * The heartbeats of the monitored peers. The keys are their ports
+     */
+    private final Map<Integer, History> histories = new HashMap<>();
+
+    /**
+     * The expected interval between two heartbeats, in milliseconds
+     */
+    private final long intervalMillis;
+
+    /**
+     * Called with the port of every peer declared failed
+     */
+    private final IntConsumer onFailure;
+
+    /**
+     * Constructor
+     * @param intervalMillis the expected interval between two heartbeats, in milliseconds
+     * @param onFailure called with the port of every peer declared failed
+     */
+    FailureDetector(long intervalMillis, IntConsumer onFailure) {
+        this.intervalMillis = intervalMillis;
+        this.onFailure = onFailure;
+    }
+
+    /**
+     * Records the arrival of a message of the peer
+     * @param port the port of the peer
+     * @param nowMillis the current time in milliseconds
+     */
+    void heartbeat(int port, long nowMillis) {
+        History history = histories.get(port);
+        if (history == null) {
+            history = new History(nowMillis);
+            // the first interval is the expected one
+            history.add(intervalMillis);
+            histories.put(port, history);
+        } else {
+            history.add(nowMillis - history.last);
+            history.last = nowMillis;
+        }
+    }
+
+    /**
+     * Declares failed the peers whose suspicion level reached the threshold
+     * @param nowMillis the current time in milliseconds
+     */
+    void check(long nowMillis) {
+        Iterator<Map.Entry<Integer, History>> it = histories.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Integer, History> entry = it.next();
+            if (phi(entry.getValue(), nowMillis) >= Constants.PHI_THRESHOLD) {
+                it.remove();
+                onFailure.accept(entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * Stops monitoring the peer, if it was
+     * @param port the port of the peer
+     */
+    void remove(int port) {
+        histories.remove(port);
+    }
+
+    /**
+     * @param history the heartbeats of a peer
+     * @param nowMillis the current time in milliseconds
+     * @return the suspicion level of the peer
+     */
+    private static double phi(History history, long nowMillis) {
+        double mean = history.mean() + Constants.HEARTBEAT_PAUSE_MILLIS;
+        double deviation = Math.max(history.deviation(), Constants.FAILURE_DETECTOR_MIN_DEVIATION_MILLIS);
+        double y = (nowMillis - history.last - mean) / deviation;
+        double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+        if (nowMillis - history.last > mean) {
+            return -Math.log10(e / (1.0 + e));
+        }
+        return -Math.log10(1.0 - 1.0 / (1.0 + e));
+    }
+
+    /**
+     * The last intervals between the heartbeats of a peer
+     */
+    private static class History {
+
+        /**
+         * The intervals in milliseconds, used as a ring
+         */
+        private final long[] intervals = new long[Constants.FAILURE_DETECTOR_WINDOW];
+        private int count;
+        private int next;
+
+        /**
+         * Sum of the intervals and of their squares
+         */
+        private double sum;
+        private double squares;
+
+        /**
+         * Arrival time of the last heartbeat, in milliseconds
+         */
+        private long last;
+
+        /**
+         * Constructor
+         * @param last arrival time of the first heartbeat, in milliseconds
+         */
+        History(long last) {
+            this.last = last;
+        }
+
+        /**
+         * Adds an interval, replacing the oldest one if the window is full
+         * @param interval the interval in milliseconds
+         */
+        void add(long interval) {
+            if (count == intervals.length) {
+                long oldest = intervals[next];
+                sum -= oldest;
+                squares -= (double) oldest * oldest;
+            } else {
+                count++;
+            }
+            intervals[next] = interval;
+            next = (next + 1) % intervals.length;
+            sum += interval;
+            squares += (double) interval * interval;
+        }
+
+        double mean() {
+            return sum / count;
+        }
+
+        double deviation() {
+            double mean = mean();
+            return Math.sqrt(Math.max(0, squares / count - mean * mean));
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package lamport;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * The Remote Interface of the clients called back by a value manager with the values committed in it
+ * (see {@link IValueManager#addValueListener(IValueListener)}).
+ *
+ * Authors: Samuel Mayor, Alexandra Korukova
+ */
+public interface IValueListener extends Remote {
+
+    /**
+     * Called once a value is committed in the value manager. Older values of the key committed meanwhile may have
+     * been skipped
+     * @param key the key of the value
+     * @param snapshot the committed value, with its commit timestamp and writer
+     * @throws RemoteException
+     */
+    void valueCommitted(int key, ValueSnapshot snapshot) throws RemoteException;
+}
@@ -6,7 +6,9 @@ import java.rmi.Remote;
 import java.rmi.RemoteException;
 
 /**
- * The Remote Interface implemented by Value Managers of the system
+ * The Remote Interface implemented by Value Managers of the system.
+ * The value managers store one value per int key. Every key has its own request queue, so the writes of different
+ * keys commit concurrently. The methods without a key use the value of {@link utils.Constants#DEFAULT_KEY}
  *
  * Authors: Samuel Mayor, Alexandra Korukova
  */
@@ -19,24 +21,164 @@ public interface IValueManager extends Remote {
      */
     int getValue() throws RemoteException;
 
+    /**
+     * Returns the last value committed in the value manager, with the logical timestamp of its commit and the port of
+     * the value manager which committed it, so that the caller can tell how recent it is.
+     * Does not wait all the requests from the queue to be executed and never blocks on the protocol
+     * @return the {@link ValueSnapshot} of the value manager
+     * @throws RemoteException
+     */
+    ValueSnapshot getSnapshot() throws RemoteException;
+
+    /**
+     * Returns the value stored in the value manager, read with the given consistency level.
+     * Blocks until the level is reached
+     * @param consistency the {@link ReadConsistency} of the read
+     * @return the {@link ValueSnapshot} read
+     * @throws RemoteException if the consistency level cannot be reached in time
+     */
+    ValueSnapshot getValue(ReadConsistency consistency) throws RemoteException;
+
+    /**
+     * Returns the mean latency of the reads served with the given consistency level by the value manager, so that the
+     * callers can pick the cheapest level suiting them
+     * @param consistency the {@link ReadConsistency}
+     * @return the mean latency of the reads in nanoseconds, 0 if no read was served with this level yet
+     * @throws RemoteException
+     */
+    long getReadLatency(ReadConsistency consistency) throws RemoteException;
+
     /**
      * Requests the modification of the value. The value will be set to the integer passed as a parameter once
-     * it is the current node's turn (Lamport algorithm)
+     * it is the current node's turn (Lamport algorithm).
+     * Returns at once, without waiting for the request to be sent: the returned id allows to wait for the commit with
+     * {@link #awaitCommit(long, long)} or to check it with {@link #pollCommit(long)}, so that many writes can be in
+     * flight at the same time. Once {@link utils.Constants#COMMIT_HISTORY} writes are in flight, the next one waits
+     * for the oldest ones to be committed
      * @param value the value to set
+     * @return the id of the write, the writes set on a value manager get increasing ids starting at 1
+     * @throws RemoteException if too many writes stay in flight for too long
+     */
+    long setValue(int value) throws RemoteException;
+
+    /**
+     * Returns the current value of the key stored in the value manager
+     * Does not wait all the requests from the queue to be executed
+     * @param key the key
+     * @return the current value of the key, 0 if it was never set
      * @throws RemoteException
      */
-    void setValue(int value) throws RemoteException;
+    int get(int key) throws RemoteException;
+
+    /**
+     * Returns the value of the key stored in the value manager, read with the given consistency level.
+     * Blocks until the level is reached
+     * @param key the key
+     * @param consistency the {@link ReadConsistency} of the read
+     * @return the {@link ValueSnapshot} of the key read
+     * @throws RemoteException if the consistency level cannot be reached in time
+     */
+    ValueSnapshot get(int key, ReadConsistency consistency) throws RemoteException;
+
+    /**
+     * Requests the modification of the value of the key, as {@link #setValue(int)} does for the default key.
+     * The writes share the ids of {@link #setValue(int)}
+     * @param key the key
+     * @param value the value to set
+     * @return the id of the write
+     * @throws RemoteException if too many writes stay in flight for too long
+     */
+    long set(int key, int value) throws RemoteException;
+
+    /**
+     * Waits for the write to be committed
+     * @param writeId the id of the write returned by {@link #setValue(int)}
+     * @param timeoutMillis maximum time to wait in milliseconds
+     * @return the logical timestamp of the commit of the write, -1 if it is not committed in time
+     * @throws RemoteException if the id is unknown or too old to be remembered
+     */
+    int awaitCommit(long writeId, long timeoutMillis) throws RemoteException;
+
+    /**
+     * Returns whether the write is committed, without waiting
+     * @param writeId the id of the write returned by {@link #setValue(int)}
+     * @return the logical timestamp of the commit of the write, -1 if it is not committed yet
+     * @throws RemoteException if the id is unknown or too old to be remembered
+     */
+    int pollCommit(long writeId) throws RemoteException;
+
+    /**
+     * Registers a listener called back with the values committed in the value manager from now on, so that the
+     * caller can cache the values instead of reading them remotely.
+     * The values of a key are pushed asynchronously in the order of their commits, the older ones being skipped if
+     * the listener is slower than the commits. A listener which cannot be called back for
+     * {@link utils.Constants#SEND_DEADLINE_MILLIS} is removed, with the values not pushed yet: the caller registers
+     * it again periodically to find it out.
+     * Registering a registered listener changes nothing. The listeners are refused unless the value manager uses the
+     * Lamport algorithm (see {@link MutexAlgorithm}): with the other ones, the remote commits reach a node only when it
+     * requests the critical section
+     * @param listener the remote {@link IValueListener}
+     * @return true if the listener was not registered
+     * @throws RemoteException if the value manager does not use the Lamport algorithm
+     */
+    boolean addValueListener(IValueListener listener) throws RemoteException;
+
+    /**
+     * Unregisters a listener, if it is registered
+     * @param listener the remote {@link IValueListener}
+     * @throws RemoteException
+     */
+    void removeValueListener(IValueListener listener) throws RemoteException;
 
     /**
      * Looks up for the other nodes of the system.
-     * This command has to be requested by the client after all the value managers are started to link t
-     * he value managers between them.
+     * The value managers link themselves when they are started, lazily: the command only links the members which
+     * are not linked yet.
      * @throws RemoteException
      * @throws NotBoundException
      * @throws MalformedURLException
      */
     void lookup() throws RemoteException, NotBoundException, MalformedURLException;
 
+    /**
+     * Getter
+     * @return the ports of the members of the system known by the value manager, itself included, sorted
+     * @throws RemoteException
+     */
+    int[] getMembers() throws RemoteException;
+
+    /**
+     * Makes the value manager leave the system once all its writes are committed, then stops it. The writes set from
+     * the call on are refused
+     * @throws RemoteException if the members cannot be told
+     */
+    void leave() throws RemoteException;
+
+    /**
+     * Adds a node joining the system to the members known by the value manager.
+     * Called by the joining node on every member
+     * @param port the port of the joining node
+     * @return the view of the value manager: its members, its clock and its values
+     * @throws RemoteException if the join of another node is in progress
+     */
+    MembershipView memberJoined(int port) throws RemoteException;
+
+    /**
+     * Ends the join of a node, the value manager accepts the joins of the other nodes again.
+     * Called by the joined node on every member, once it knows all of them
+     * @param port the port of the joined node
+     * @throws RemoteException
+     */
+    void joinEnded(int port) throws RemoteException;
+
+    /**
+     * Removes a node leaving the system from the members known by the value manager.
+     * Called by the leaving node on every member
+     * @param port the port of the leaving node
+     * @throws RemoteException
+     */
+    void memberLeft(int port) throws RemoteException;
+
     /**
      * Accepts the incoming {@link Message} from another value manager
      * @param message the {@link Message} sent by some remote {@link IValueManager}
@@ -0,0 +1,142 @@
+package lamport;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * This class represents a map from the int keys to objects, storing the keys without boxing them.
+ *
+ * DESCRIPTION:
+ * - The entries are stored in a table whose size is a power of two, with open addressing and linear probing.
+ * The entries are never removed.
+ * - There is a single writer (the event loop of a {@link ValueManager}) and any number of readers, which never lock:
+ * every entry is published with a volatile write and, when the table grows, the entries are copied to a new table
+ * published once it is complete, so a reader always sees a consistent table.
+ *
+ * Authors: Samuel Mayor, Alexandra Korukova
+ */
+final class IntObjectMap<V> {
+
+    // initial number of the slots of the table
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * The slots of the map, null if the slot is free
+     */
+    private volatile AtomicReferenceArray<Entry<V>> table = new AtomicReferenceArray<>(INITIAL_CAPACITY);
+
+    /**
+     * Number of the entries. Only accessed by the writer
+     */
+    private int size;
+
+    /**
+     * @param key the key
+     * @return the value associated with the key, null if there is none
+     */
+    V get(int key) {
+        AtomicReferenceArray<Entry<V>> slots = table;
+        int mask = slots.length() - 1;
+        for (int i = index(key, mask); ; i = (i + 1) & mask) {
+            Entry<V> entry = slots.get(i);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.key == key) {
+                return entry.value;
+            }
+        }
+    }
+
+    /**
+     * Associates the value with the key, replacing the previous value if any. Called by the writer only
+     * @param key the key
+     * @param value the value, not null
+     */
+    void put(int key, V value) {
+        if ((size + 1) * 2 > table.length()) {
+            grow();
+        }
+        if (insert(table, new Entry<>(key, value))) {
+            size++;
+        }
+    }
+
+    /**
+     * Getter
+     * @return number of the entries
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Performs the action for every value of the map
+     * @param action the action
+     */
+    void forEachValue(Consumer<? super V> action) {
+        AtomicReferenceArray<Entry<V>> slots = table;
+        for (int i = 0; i < slots.length(); i++) {
+            Entry<V> entry = slots.get(i);
+            if (entry != null) {
+                action.accept(entry.value);
+            }
+        }
+    }
+
+    /**
+     * Copies the entries to a table twice as large and publishes it
+     */
+    private void grow() {
+        AtomicReferenceArray<Entry<V>> slots = table;
+        AtomicReferenceArray<Entry<V>> larger = new AtomicReferenceArray<>(slots.length() * 2);
+        for (int i = 0; i < slots.length(); i++) {
+            Entry<V> entry = slots.get(i);
+            if (entry != null) {
+                insert(larger, entry);
+            }
+        }
+        table = larger;
+    }
+
+    /**
+     * Stores the entry in the first free slot of its probing sequence, or in the slot of the same key
+     * @param slots the table
+     * @param entry the entry to store
+     * @return true if the key was not in the table yet
+     */
+    private static <V> boolean insert(AtomicReferenceArray<Entry<V>> slots, Entry<V> entry) {
+        int mask = slots.length() - 1;
+        for (int i = index(entry.key, mask); ; i = (i + 1) & mask) {
+            Entry<V> current = slots.get(i);
+            if (current == null || current.key == entry.key) {
+                slots.set(i, entry);
+                return current == null;
+            }
+        }
+    }
+
+    /**
+     * @param key the key
+     * @param mask the size of the table - 1
+     * @return the first slot of the probing sequence of the key. The key is mixed so that the consecutive keys are
+     * spread over the table
+     */
+    private static int index(int key, int mask) {
+        int hash = key * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    /**
+     * A key and its value, immutable
+     */
+    private static final class Entry<V> {
+        private final int key;
+        private final V value;
+
+        Entry(int key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+}
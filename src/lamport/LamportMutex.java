@@ -0,0 +1,233 @@
+package lamport;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * The Lamport mutual exclusion algorithm.
+ *
+ * DESCRIPTION:
+ * - Every request is pushed to the request queue of every node and acknowledged by every node receiving it.
+ * - A local request gets the critical section once it is the oldest one of the queue and it is acknowledged by all
+ * the other nodes. The critical section is liberated with a {@link LiberationMessage} sent to all the nodes, which
+ * also carries the committed value.
+ * - With the skip-ACK optimization, a node receiving a request does not acknowledge it if it has already sent a
+ * newer request of its own to the emitter: this request carries a greater timestamp, so it proves the same as the
+ * acknowledgement would.
+ * - An ordered read is sent as a {@link MessageType#READ} message, acknowledged as a request but not pushed to the
+ * request queues. Once it is acknowledged by all the other nodes, every older request is in the local queue; the read
+ * is ready when none of them is left. No liberation is needed.
+ * - With a lease, a node whose critical section found no other request in its queue keeps the critical section for
+ * the lease duration: its next requests get it at once, without being sent, and their values are committed with the
+ * liberation alone (N-1 messages instead of 3(N-1)). No other node may get the critical section meanwhile: its
+ * request must be acknowledged by the lease holder, which gives the lease up when it receives the request, and the
+ * channels deliver the liberations sent before the acknowledgement first. The liberation of such a request names a
+ * request no node queued, so it only commits the value. The lease is not renewed by the requests it serves, so a node
+ * declared failed by mistake stops writing alone once it expires: it must be shorter than the silence after which
+ * the failure detector declares a node failed.
+ *
+ * Authors: Samuel Mayor, Alexandra Korukova
+ */
+class LamportMutex implements MutualExclusion {
+
+    /**
+     * The {@link ValueManager} running the algorithm
+     */
+    private final Context context;
+
+    /**
+     * true if the acknowledgements implied by newer requests are skipped
+     */
+    private final boolean skipAck;
+
+    /**
+     * Duration of the lease in nanoseconds, 0 if there is no lease
+     */
+    private final long leaseNanos;
+
+    /**
+     * true while the current node may hold the lease, until {@link #leaseExpiry} in nanoseconds
+     */
+    private boolean leased;
+    private long leaseExpiry;
+
+    /**
+     * The request queue, holding the requests of all the nodes of the system
+     */
+    private final RequestQueue pendingRequests = new RequestQueue();
+
+    /**
+     * The peers which acknowledged the local requests which did not get the critical section yet
+     */
+    private final AckTracker acks;
+
+    /**
+     * The peers which acknowledged the pending local reads
+     */
+    private final AckTracker readAcks;
+
+    /**
+     * The tasks to run once the pending local reads are ready, in the order of the reads
+     */
+    private final Deque<Runnable> readCallbacks = new ArrayDeque<>();
+
+    /**
+     * Constructor
+     * @param context the {@link ValueManager} running the algorithm
+     * @param skipAck true to skip the acknowledgements implied by newer requests
+     * @param leaseMillis duration of the lease in milliseconds, 0 for no lease
+     */
+    LamportMutex(Context context, boolean skipAck, long leaseMillis) {
+        this.context = context;
+        this.skipAck = skipAck;
+        leaseNanos = leaseMillis * 1_000_000L;
+        acks = new AckTracker(context.getPeers());
+        readAcks = new AckTracker(context.getPeers());
+    }
+
+    @Override
+    public void request(int timestamp) {
+        if (holdsLease()) {
+            context.broadcast(context.enterCriticalSection(timestamp));
+            return;
+        }
+        pendingRequests.add(timestamp, context.getPort());
+        acks.add(timestamp);
+        context.broadcast(new Message(timestamp, MessageType.REQUEST, context.getPort()));
+        checkCriticalSection();
+    }
+
+    @Override
+    public void read(int timestamp, Runnable ready) {
+        readAcks.add(timestamp);
+        readCallbacks.add(ready);
+        context.broadcast(new Message(timestamp, MessageType.READ, context.getPort()));
+        checkReads();
+    }
+
+    @Override
+    public void onMessage(Message message) {
+        switch (message.getMessageType()) {
+            case REQUEST:
+                // given up before the acknowledgement is sent
+                leased = false;
+                pendingRequests.add(message.getTimestamp(), message.getEmitterPort());
+                if (!skipAck || !hasNewerRequest(message.getTimestamp())) {
+                    context.send(message.getEmitterPort(), new AcknowledgementMessage(context.getLocalTime(),
+                            context.getPort(), message.getTimestamp()));
+                }
+                if (skipAck) {
+                    // the request acknowledges all the older local requests and reads
+                    acks.acknowledgeOlder(message.getTimestamp(), message.getEmitterPort());
+                    readAcks.acknowledgeOlder(message.getTimestamp(), message.getEmitterPort());
+                    checkCriticalSection();
+                }
+                break;
+            case READ:
+                if (!skipAck || !hasNewerRequest(message.getTimestamp())) {
+                    context.send(message.getEmitterPort(), new AcknowledgementMessage(context.getLocalTime(),
+                            context.getPort(), message.getTimestamp()));
+                }
+                break;
+            case ACKNOWLEDGEMENT:
+                int requestTimestamp = ((AcknowledgementMessage) message).getRequestTimestamp();
+                if (acks.acknowledge(requestTimestamp, message.getEmitterPort())) {
+                    checkCriticalSection();
+                } else if (readAcks.acknowledge(requestTimestamp, message.getEmitterPort())) {
+                    checkReads();
+                }
+                break;
+            case LIBERATION:
+                LiberationMessage libMessage = (LiberationMessage) message;
+                pendingRequests.remove(libMessage.getRequestTimestamp(), libMessage.getEmitterPort());
+                context.commit(libMessage.getNewValue(), libMessage.getTimestamp(), libMessage.getEmitterPort());
+                checkCriticalSection();
+                break;
+            default:
+                throw new IllegalArgumentException("Unexpected message type: " + message.getMessageType());
+        }
+    }
+
+    @Override
+    public void onPeerFailed(int port) {
+        // the liberations of the failed node will never come
+        pendingRequests.removeEmitter(port);
+        acks.removePeer(port);
+        readAcks.removePeer(port);
+        checkCriticalSection();
+    }
+
+    @Override
+    public void onPeerJoined(int port) {
+        acks.addPeer(port);
+        readAcks.addPeer(port);
+        // the new node must queue the pending local requests, older than its own ones
+        acks.forEachTimestamp(timestamp ->
+                context.send(port, new Message(timestamp, MessageType.REQUEST, context.getPort())));
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return pendingRequests.size();
+    }
+
+    /**
+     * @param timestamp the timestamp of a remote request
+     * @return true if a local request newer than the remote one is pending, and thus already sent to its emitter
+     */
+    private boolean hasNewerRequest(int timestamp) {
+        return !acks.isEmpty() && acks.lastTimestamp() > timestamp;
+    }
+
+    /**
+     * Gives the critical section to the local requests which are the oldest of the request queue and acknowledged
+     * by all the other nodes, one after another, and liberates it for each of them.
+     * Only the head of the request queue and the oldest local request are checked.
+     */
+    private void checkCriticalSection() {
+        boolean entered = false;
+        while (!pendingRequests.isEmpty() && pendingRequests.firstPort() == context.getPort()
+                && acks.isFirstAcknowledged()) {
+            int timestamp = acks.removeFirst();
+            pendingRequests.removeFirst();
+            context.broadcast(context.enterCriticalSection(timestamp));
+            entered = true;
+        }
+        if (entered && leaseNanos > 0 && pendingRequests.isEmpty()) {
+            // uncontended: no other request is known
+            leased = true;
+            leaseExpiry = context.getNanoTime() + leaseNanos;
+        }
+        checkReads();
+    }
+
+    /**
+     * @return true if the current node holds the lease: the critical section is its own until it expires
+     */
+    private boolean holdsLease() {
+        if (leased && context.getNanoTime() - leaseExpiry >= 0) {
+            leased = false;
+        }
+        return leased;
+    }
+
+    /**
+     * Runs the tasks of the local reads which are acknowledged by all the other nodes and which no pending request
+     * precedes anymore, in the order of the reads
+     */
+    private void checkReads() {
+        while (!readAcks.isEmpty() && readAcks.isFirstAcknowledged()
+                && (pendingRequests.isEmpty() || isBefore(readAcks.firstTimestamp(), context.getPort(),
+                        pendingRequests.firstTimestamp(), pendingRequests.firstPort()))) {
+            readAcks.removeFirst();
+            readCallbacks.poll().run();
+        }
+    }
+
+    /**
+     * @return true if the first request (or read) is ordered before the second one
+     */
+    private static boolean isBefore(int timestamp, int port, int otherTimestamp, int otherPort) {
+        return timestamp < otherTimestamp || (timestamp == otherTimestamp && port < otherPort);
+    }
+}
@@ -0,0 +1,115 @@
+package lamport;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class counts the latencies of an operation in buckets of logarithmic width, so that their percentiles can be
+ * read at any time.
+ *
+ * DESCRIPTION:
+ * - Every power of 2 is divided into {@link #SUB_BUCKETS} buckets of equal width: a latency is counted with a
+ * relative error of 1 / {@link #SUB_BUCKETS} at most, from a nanosecond to hundreds of years, in a fixed array.
+ * - Recording a latency increments a few atomic counters and never allocates, so it can stay enabled.
+ * - Used from any thread. The percentiles read while latencies are recorded are approximate.
+ * - Also used by the load generator of the client (see {@link client.LoadGenerator}).
+ *
+ * Authors: Samuel Mayor, Alexandra Korukova
+ */
+public class LatencyHistogram {
+
+    // a power of 2 is divided into 2^SUB_BUCKET_BITS buckets
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * Number of the latencies counted in every bucket
+     */
+    private final AtomicLongArray counts = new AtomicLongArray((Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS);
+
+    /**
+     * Number of the latencies recorded, their sum and the greatest one, in nanoseconds
+     */
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a latency
+     * @param nanos the latency in nanoseconds, a negative one counts as 0
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(index(value));
+        count.increment();
+        sum.add(value);
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    /**
+     * @return the summary of the latencies recorded so far
+     */
+    public LatencySummary summary() {
+        long total = count.sum();
+        if (total == 0) {
+            return new LatencySummary(0, 0, 0, 0, 0, 0, 0);
+        }
+        return new LatencySummary(total, micros(sum.sum() / (double) total), percentile(0.5), percentile(0.9),
+                percentile(0.99), percentile(0.999), micros(max.get()));
+    }
+
+    /**
+     * @param fraction the fraction of the latencies, between 0 and 1
+     * @return the latency in microseconds which the given fraction of the recorded latencies do not exceed,
+     * at the precision of the buckets
+     */
+    public double percentile(double fraction) {
+        long total = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            total += counts.get(i);
+        }
+        long target = Math.max(1, (long) Math.ceil(fraction * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return micros(Math.min(highest(i), max.get()));
+            }
+        }
+        return micros(max.get());
+    }
+
+    /**
+     * @param value a latency in nanoseconds, not negative
+     * @return the index of the bucket of the latency
+     */
+    private static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    /**
+     * @param index the index of a bucket
+     * @return the greatest latency in nanoseconds counted in the bucket
+     */
+    private static long highest(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long mantissa = index % SUB_BUCKETS + SUB_BUCKETS;
+        return ((mantissa + 1) << shift) - 1;
+    }
+
+    /**
+     * @param nanos a duration in nanoseconds
+     * @return the duration in microseconds
+     */
+    private static double micros(double nanos) {
+        return nanos / 1000;
+    }
+}
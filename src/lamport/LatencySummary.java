@@ -0,0 +1,110 @@
+package lamport;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * This class represents the distribution of the latencies of an operation at some point, as exposed by
+ * {@link ValueManagerMetricsMXBean}. All the latencies are in microseconds.
+ * The summaries are immutable
+ *
+ * Authors: Samuel Mayor, Alexandra Korukova
+ */
+public final class LatencySummary {
+
+    private final long count;
+
+    private final double mean;
+
+    private final double p50;
+
+    private final double p90;
+
+    private final double p99;
+
+    private final double p999;
+
+    private final double max;
+
+    /**
+     * Constructor
+     * @param count number of the latencies recorded
+     * @param mean the mean latency
+     * @param p50 the median latency
+     * @param p90 the 90th percentile of the latencies
+     * @param p99 the 99th percentile of the latencies
+     * @param p999 the 99.9th percentile of the latencies
+     * @param max the greatest latency
+     */
+    @ConstructorProperties({"count", "mean", "p50", "p90", "p99", "p999", "max"})
+    public LatencySummary(long count, double mean, double p50, double p90, double p99, double p999, double max) {
+        this.count = count;
+        this.mean = mean;
+        this.p50 = p50;
+        this.p90 = p90;
+        this.p99 = p99;
+        this.p999 = p999;
+        this.max = max;
+    }
+
+    /**
+     * Getter
+     * @return number of the latencies recorded
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Getter
+     * @return the mean latency
+     */
+    public double getMean() {
+        return mean;
+    }
+
+    /**
+     * Getter
+     * @return the median latency
+     */
+    public double getP50() {
+        return p50;
+    }
+
+    /**
+     * Getter
+     * @return the 90th percentile of the latencies
+     */
+    public double getP90() {
+        return p90;
+    }
+
+    /**
+     * Getter
+     * @return the 99th percentile of the latencies
+     */
+    public double getP99() {
+        return p99;
+    }
+
+    /**
+     * Getter
+     * @return the 99.9th percentile of the latencies
+     */
+    public double getP999() {
+        return p999;
+    }
+
+    /**
+     * Getter
+     * @return the greatest latency
+     */
+    public double getMax() {
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d mean=%.1fus p50=%.1fus p90=%.1fus p99=%.1fus p99.9=%.1fus max=%.1fus",
+                count, mean, p50, p90, p99, p999, max);
+    }
+}
@@ -1,5 +1,9 @@
 package lamport;
 
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
 /**
  * This class represents a liberation message sent by the {@link IValueManager} when it liberates the critical
  * section
@@ -8,6 +12,11 @@ package lamport;
  */
 public class LiberationMessage extends Message {
 
+    private static final long serialVersionUID = 1L;
+
+    // the timestamp of the request which got the critical section
+    private int requestTimestamp;
+
     // the value set by the emitter
     private int newValue;
 
@@ -16,13 +25,45 @@ public class LiberationMessage extends Message {
      * @param timestamp the logical timestamp of the {@link Message}
      * @param messageType message's {@link MessageType}
      * @param emitterPort emitter's port
+     * @param requestTimestamp the timestamp of the request which got the critical section
      * @param newValue the value set by the emitter
      */
-    public LiberationMessage(int timestamp, MessageType messageType, int emitterPort, int newValue) {
+    public LiberationMessage(int timestamp, MessageType messageType, int emitterPort, int requestTimestamp,
+                             int newValue) {
         super(timestamp, messageType, emitterPort);
+        this.requestTimestamp = requestTimestamp;
         this.newValue = newValue;
     }
 
+    /**
+     * Constructor used by the deserialization
+     */
+    public LiberationMessage() {
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        super.writeExternal(out);
+        out.writeInt(requestTimestamp);
+        out.writeInt(newValue);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        super.readExternal(in);
+        requestTimestamp = in.readInt();
+        newValue = in.readInt();
+    }
+
+    /**
+     * Getter
+     * @return the timestamp of the request liberated by the emitter.
+     * The receiver must remove this request from its request queue
+     */
+    public int getRequestTimestamp() {
+        return requestTimestamp;
+    }
+
     /**
      * Getter
      * @return the value to set by the emitter {@link IValueManager}.
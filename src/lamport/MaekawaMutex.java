@@ -0,0 +1,482 @@
+package lamport;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+
+/**
+ * The Maekawa mutual exclusion algorithm, with grid quorums.
+ *
+ * DESCRIPTION:
+ * - The N nodes, sorted by port, are laid out row after row in a grid of ceil(sqrt(N)) columns. The quorum of a node
+ * is its row and its column, itself included: about 2 sqrt(N) nodes. Any two quorums share a node.
+ * - Every node is an arbiter granting its permission to one request at a time, its lock. A request gets the critical
+ * section once all the nodes of the quorum of its emitter have granted it. The critical section is liberated with a
+ * {@link LiberationMessage} sent to the quorum only, which gives the lock of every arbiter to its next waiting
+ * request. The requests are ordered as in the Lamport algorithm (in the order of the {@link RequestQueue}
+ * keys, {@code timestamp << 32 | port}).
+ * - Deadlocks are avoided as described by Sanders: an arbiter receiving a request older than its lock and than all its
+ * waiting requests sends an {@link MessageType#INQUIRE} to the holder of the lock; every other request waiting at the
+ * arbiter gets a {@link MessageType#FAILED}. The holder of a lock which knows that its request cannot get the
+ * critical section yet (it received a FAILED) gives the lock back with a {@link MessageType#RELINQUISH}, and the
+ * arbiter grants the older request.
+ * - The committed values are not broadcast. The arbiters of the quorum commit the value carried by the liberation,
+ * and every grant ({@link ReplyMessage}) carries the last value known by its arbiter: as the quorums intersect, a
+ * request gets the value of the last critical section with its grants. A node which does not request the critical
+ * section may therefore keep an older value, as with the Ricart-Agrawala algorithm.
+ * - An ordered read is a request whose critical section commits nothing, liberated without a value.
+ * - When a node joins or fails, the grid is rebuilt with the current members: the pending local requests are sent to
+ * the new members of the quorum and cancelled (with a liberation) at the old ones. An arbiter forgets the requests of
+ * a failed node, and gives its lock to the next request if the failed node held it. The quorums of two nodes only
+ * intersect once both have the same view of the members.
+ * - A critical section costs 3(K-1) messages, K being the size of the quorum, plus the inquiries when the requests
+ * compete. The messages a node sends to itself as a member of its own quorum are handled locally.
+ *
+ * Authors: Samuel Mayor, Alexandra Korukova
+ */
+class MaekawaMutex implements MutualExclusion {
+
+    /**
+     * The {@link ValueManager} running the algorithm
+     */
+    private final Context context;
+
+    /**
+     * The ports of the nodes of the quorum of the current node (itself included), sorted
+     */
+    private int[] quorum;
+
+    /**
+     * The pending local requests and reads, the oldest first
+     */
+    private final Deque<Attempt> attempts = new ArrayDeque<>();
+
+    /**
+     * The requests waiting for the lock of the current node as an arbiter
+     */
+    private final RequestQueue waiting = new RequestQueue();
+
+    /**
+     * The request holding the lock of the current node as an arbiter, if {@link #locked}
+     */
+    private boolean locked;
+    private int lockTimestamp;
+    private int lockPort;
+
+    /**
+     * true if an {@link MessageType#INQUIRE} was sent to the holder of the lock
+     */
+    private boolean inquired;
+
+    /**
+     * The messages sent by the current node to itself, handled once the current message is handled
+     */
+    private final Deque<Message> localMessages = new ArrayDeque<>();
+
+    /**
+     * true while the local messages are handled
+     */
+    private boolean handlingLocalMessages;
+
+    /**
+     * Constructor
+     * @param context the {@link ValueManager} running the algorithm
+     */
+    MaekawaMutex(Context context) {
+        this.context = context;
+        quorum = quorum(context.getPort(), context.getPeers());
+    }
+
+    /**
+     * Computes the grid quorum of a node
+     * @param port the port of the node
+     * @param peers the ports of the other nodes
+     * @return the ports of the nodes in the same row or in the same column as the node, itself included, sorted
+     */
+    static int[] quorum(int port, int[] peers) {
+        int[] nodes = Arrays.copyOf(peers, peers.length + 1);
+        nodes[peers.length] = port;
+        Arrays.sort(nodes);
+        int columns = (int) Math.ceil(Math.sqrt(nodes.length));
+        int index = Arrays.binarySearch(nodes, port);
+        int[] members = new int[nodes.length];
+        int size = 0;
+        for (int i = 0; i < nodes.length; i++) {
+            if (i / columns == index / columns || i % columns == index % columns) {
+                members[size++] = nodes[i];
+            }
+        }
+        return Arrays.copyOf(members, size);
+    }
+
+    @Override
+    public void request(int timestamp) {
+        attempts.addLast(new Attempt(timestamp, null));
+        sendToQuorum(new Message(timestamp, MessageType.REQUEST, context.getPort()));
+        handleLocalMessages();
+    }
+
+    @Override
+    public void read(int timestamp, Runnable ready) {
+        attempts.addLast(new Attempt(timestamp, ready));
+        sendToQuorum(new Message(timestamp, MessageType.REQUEST, context.getPort()));
+        handleLocalMessages();
+    }
+
+    @Override
+    public void onMessage(Message message) {
+        handle(message);
+        handleLocalMessages();
+    }
+
+    /**
+     * Handles a message sent by a node of the system, the current one included
+     * @param message the {@link Message}
+     */
+    private void handle(Message message) {
+        switch (message.getMessageType()) {
+            case REQUEST:
+                onRequest(message.getTimestamp(), message.getEmitterPort());
+                break;
+            case LIBERATION:
+                if (message instanceof LiberationMessage) {
+                    LiberationMessage liberation = (LiberationMessage) message;
+                    context.commit(liberation.getNewValue(), liberation.getTimestamp(), liberation.getEmitterPort());
+                    onLiberation(liberation.getRequestTimestamp(), liberation.getEmitterPort());
+                } else {
+                    // the liberation of a read, without value
+                    onLiberation(((AcknowledgementMessage) message).getRequestTimestamp(), message.getEmitterPort());
+                }
+                break;
+            case RELINQUISH:
+                onRelinquish(((AcknowledgementMessage) message).getRequestTimestamp(), message.getEmitterPort());
+                break;
+            case ACKNOWLEDGEMENT: {
+                ReplyMessage grant = (ReplyMessage) message;
+                context.commit(grant.getValue(), grant.getValueTimestamp(), grant.getValuePort());
+                Attempt attempt = attempt(grant.getRequestTimestamp());
+                int index = Arrays.binarySearch(quorum, grant.getEmitterPort());
+                // a grant of a former member of the quorum is released by the cancellation sent to it
+                if (attempt != null && index >= 0) {
+                    attempt.granted.set(index);
+                    attempt.failed.clear(index);
+                    checkCriticalSection();
+                }
+                break;
+            }
+            case FAILED: {
+                Attempt attempt = attempt(((AcknowledgementMessage) message).getRequestTimestamp());
+                int index = Arrays.binarySearch(quorum, message.getEmitterPort());
+                if (attempt != null && index >= 0) {
+                    attempt.failed.set(index);
+                    // the request cannot get the critical section for now, give the inquired locks back
+                    for (int i = attempt.inquired.nextSetBit(0); i >= 0; i = attempt.inquired.nextSetBit(i + 1)) {
+                        relinquish(attempt, i);
+                    }
+                    attempt.inquired.clear();
+                }
+                break;
+            }
+            case INQUIRE: {
+                Attempt attempt = attempt(((AcknowledgementMessage) message).getRequestTimestamp());
+                int index = Arrays.binarySearch(quorum, message.getEmitterPort());
+                // ignored if the request already got the critical section: the liberation will follow
+                if (attempt != null && index >= 0) {
+                    if (attempt.failed.isEmpty()) {
+                        attempt.inquired.set(index);
+                    } else {
+                        relinquish(attempt, index);
+                    }
+                }
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("Unexpected message type: " + message.getMessageType());
+        }
+    }
+
+    @Override
+    public void onPeerFailed(int port) {
+        // as an arbiter
+        waiting.removeEmitter(port);
+        if (locked && lockPort == port) {
+            locked = false;
+            inquired = false;
+            grantNext();
+        }
+        // as a requester
+        rebuildQuorum(port);
+        handleLocalMessages();
+    }
+
+    @Override
+    public void onPeerJoined(int port) {
+        rebuildQuorum(0);
+        handleLocalMessages();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        // as an arbiter: the locking request and the waiting ones
+        return waiting.size() + (locked ? 1 : 0);
+    }
+
+    /**
+     * Computes the quorum of the current members and moves the pending local requests to it: they are sent to the
+     * new members of the quorum and cancelled at the members which left it
+     * @param failed the port of a failed node, which is not sent the cancellations, 0 if there is none
+     */
+    private void rebuildQuorum(int failed) {
+        int[] previous = quorum;
+        quorum = quorum(context.getPort(), context.getPeers());
+        if (Arrays.equals(previous, quorum)) {
+            return;
+        }
+        for (Attempt attempt : attempts) {
+            attempt.granted = remap(attempt.granted, previous);
+            attempt.failed = remap(attempt.failed, previous);
+            attempt.inquired = remap(attempt.inquired, previous);
+            for (int member : previous) {
+                if (member != failed && Arrays.binarySearch(quorum, member) < 0) {
+                    send(member, new AcknowledgementMessage(context.getLocalTime(), MessageType.LIBERATION,
+                            context.getPort(), attempt.timestamp));
+                }
+            }
+            for (int member : quorum) {
+                if (Arrays.binarySearch(previous, member) < 0) {
+                    send(member, new Message(attempt.timestamp, MessageType.REQUEST, context.getPort()));
+                }
+            }
+        }
+        checkCriticalSection();
+    }
+
+    /**
+     * @param indexes indexes of nodes in the previous quorum
+     * @param previous the previous quorum
+     * @return the indexes of the same nodes in the current quorum, without the ones which left it
+     */
+    private BitSet remap(BitSet indexes, int[] previous) {
+        BitSet remapped = new BitSet(quorum.length);
+        for (int i = indexes.nextSetBit(0); i >= 0; i = indexes.nextSetBit(i + 1)) {
+            int index = Arrays.binarySearch(quorum, previous[i]);
+            if (index >= 0) {
+                remapped.set(index);
+            }
+        }
+        return remapped;
+    }
+
+    /**
+     * Handles a request as an arbiter: grants the lock if it is free, otherwise queues the request and inquires the
+     * holder of the lock if the request is older than all the others
+     * @param timestamp the timestamp of the request
+     * @param port the port of the emitter of the request
+     */
+    private void onRequest(int timestamp, int port) {
+        if (!locked) {
+            grant(timestamp, port);
+            return;
+        }
+        boolean hadWaiting = !waiting.isEmpty();
+        int previousTimestamp = hadWaiting ? waiting.firstTimestamp() : 0;
+        int previousPort = hadWaiting ? waiting.firstPort() : 0;
+        waiting.add(timestamp, port);
+        if (waiting.firstTimestamp() == timestamp && waiting.firstPort() == port
+                && isBefore(timestamp, port, lockTimestamp, lockPort)) {
+            if (!inquired) {
+                inquired = true;
+                send(lockPort, new AcknowledgementMessage(context.getLocalTime(), MessageType.INQUIRE,
+                        context.getPort(), lockTimestamp));
+            }
+            // the request overtakes the previous oldest waiting one
+            if (hadWaiting) {
+                send(previousPort, new AcknowledgementMessage(context.getLocalTime(), MessageType.FAILED,
+                        context.getPort(), previousTimestamp));
+            }
+        } else {
+            send(port, new AcknowledgementMessage(context.getLocalTime(), MessageType.FAILED, context.getPort(),
+                    timestamp));
+        }
+    }
+
+    /**
+     * Handles the liberation of the critical section as an arbiter: the lock goes to the oldest waiting request.
+     * The liberation of a request which does not hold the lock cancels it
+     * @param timestamp the timestamp of the liberated request
+     * @param port the port of the emitter of the request
+     */
+    private void onLiberation(int timestamp, int port) {
+        if (!locked || lockTimestamp != timestamp || lockPort != port) {
+            waiting.remove(timestamp, port);
+            return;
+        }
+        locked = false;
+        inquired = false;
+        grantNext();
+    }
+
+    /**
+     * Handles the lock given back by its holder as an arbiter: the holder waits again and the lock goes to the oldest
+     * waiting request
+     * @param timestamp the timestamp of the request giving the lock back
+     * @param port the port of the emitter of the request
+     */
+    private void onRelinquish(int timestamp, int port) {
+        if (!locked || lockTimestamp != timestamp || lockPort != port) {
+            return;
+        }
+        locked = false;
+        inquired = false;
+        waiting.add(timestamp, port);
+        grantNext();
+    }
+
+    /**
+     * Grants the lock to the oldest waiting request, if any
+     */
+    private void grantNext() {
+        if (!waiting.isEmpty()) {
+            int timestamp = waiting.firstTimestamp();
+            int port = waiting.firstPort();
+            waiting.removeFirst();
+            grant(timestamp, port);
+        }
+    }
+
+    /**
+     * Gives the lock to the request, with the last value committed known by the current node
+     * @param timestamp the timestamp of the request
+     * @param port the port of the emitter of the request
+     */
+    private void grant(int timestamp, int port) {
+        locked = true;
+        lockTimestamp = timestamp;
+        lockPort = port;
+        ValueSnapshot snapshot = context.getSnapshot();
+        send(port, new ReplyMessage(context.getLocalTime(), context.getPort(), timestamp, snapshot.getValue(),
+                snapshot.getTimestamp(), snapshot.getWriterPort()));
+    }
+
+    /**
+     * Gives the lock of an arbiter back for a local request. The arbiter grants an older request, so the local one
+     * has failed there until it is granted again
+     * @param attempt the local request
+     * @param index the index of the arbiter in the quorum
+     */
+    private void relinquish(Attempt attempt, int index) {
+        attempt.granted.clear(index);
+        attempt.failed.set(index);
+        send(quorum[index], new AcknowledgementMessage(context.getLocalTime(), MessageType.RELINQUISH,
+                context.getPort(), attempt.timestamp));
+    }
+
+    /**
+     * Gives the critical section to the oldest local requests which got the locks of the whole quorum, one after
+     * another, and liberates it
+     */
+    private void checkCriticalSection() {
+        while (!attempts.isEmpty() && attempts.peekFirst().granted.cardinality() == quorum.length) {
+            Attempt attempt = attempts.removeFirst();
+            if (attempt.read != null) {
+                attempt.read.run();
+                sendToQuorum(new AcknowledgementMessage(context.getLocalTime(), MessageType.LIBERATION,
+                        context.getPort(), attempt.timestamp));
+            } else {
+                sendToQuorum(context.enterCriticalSection(attempt.timestamp));
+            }
+        }
+    }
+
+    /**
+     * @param timestamp the timestamp of a local request
+     * @return the pending local request, null if it already got the critical section
+     */
+    private Attempt attempt(int timestamp) {
+        for (Attempt attempt : attempts) {
+            if (attempt.timestamp == timestamp) {
+                return attempt;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Sends the message to all the nodes of the quorum
+     * @param message the {@link Message} to send
+     */
+    private void sendToQuorum(Message message) {
+        for (int port : quorum) {
+            send(port, message);
+        }
+    }
+
+    /**
+     * Sends the message to a node, or queues it to be handled locally if the node is the current one
+     * @param port the port of the receiver
+     * @param message the {@link Message} to send
+     */
+    private void send(int port, Message message) {
+        if (port == context.getPort()) {
+            localMessages.add(message);
+        } else {
+            context.send(port, message);
+        }
+    }
+
+    /**
+     * Handles the messages the current node sent to itself, including the ones sent while they are handled
+     */
+    private void handleLocalMessages() {
+        if (handlingLocalMessages) {
+            return;
+        }
+        handlingLocalMessages = true;
+        try {
+            Message message;
+            while ((message = localMessages.poll()) != null) {
+                handle(message);
+            }
+        } finally {
+            handlingLocalMessages = false;
+        }
+    }
+
+    /**
+     * @return true if the first request precedes the second one in the Lamport order
+     */
+    private static boolean isBefore(int timestamp, int port, int otherTimestamp, int otherPort) {
+        return timestamp < otherTimestamp || (timestamp == otherTimestamp && port < otherPort);
+    }
+
+    /**
+     * A pending local request or read and the state of its quorum
+     */
+    private static class Attempt {
+
+        /**
+         * The timestamp of the request
+         */
+        private final int timestamp;
+
+        /**
+         * The task to run once the read gets the critical section, null if the request is not a read
+         */
+        private final Runnable read;
+
+        /**
+         * The indexes (in the quorum) of the arbiters which granted their lock to the request, of the ones which
+         * answered {@link MessageType#FAILED} and did not grant their lock since, and of the ones which inquired
+         * about their lock
+         */
+        private BitSet granted = new BitSet();
+        private BitSet failed = new BitSet();
+        private BitSet inquired = new BitSet();
+
+        Attempt(int timestamp, Runnable read) {
+            this.timestamp = timestamp;
+            this.read = read;
+        }
+    }
+}
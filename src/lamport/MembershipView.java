@@ -0,0 +1,68 @@
+package lamport;
+
+import java.io.Serializable;
+
+/**
+ * This class represents what a member of the system tells a node joining it: the members it knows, its logical
+ * clock and the last value of every key it stores.
+ *
+ * Authors: Samuel Mayor, Alexandra Korukova
+ */
+public final class MembershipView implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int[] members;
+
+    private final int localTime;
+
+    private final int[] keys;
+
+    private final ValueSnapshot[] values;
+
+    /**
+     * Constructor
+     * @param members the ports of the members, the sender included
+     * @param localTime the logical clock of the sender
+     * @param keys the keys stored by the sender
+     * @param values the last value of every key, in the order of the keys
+     */
+    MembershipView(int[] members, int localTime, int[] keys, ValueSnapshot[] values) {
+        this.members = members;
+        this.localTime = localTime;
+        this.keys = keys;
+        this.values = values;
+    }
+
+    /**
+     * Getter
+     * @return the ports of the members, the sender included
+     */
+    public int[] getMembers() {
+        return members;
+    }
+
+    /**
+     * Getter
+     * @return the logical clock of the sender
+     */
+    public int getLocalTime() {
+        return localTime;
+    }
+
+    /**
+     * Getter
+     * @return the keys stored by the sender
+     */
+    public int[] getKeys() {
+        return keys;
+    }
+
+    /**
+     * Getter
+     * @return the last value of every key, in the order of the keys
+     */
+    public ValueSnapshot[] getValues() {
+        return values;
+    }
+}
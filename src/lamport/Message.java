@@ -1,13 +1,22 @@
 package lamport;
 
-import java.io.Serializable;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 
 /**
  * This class represents a message {@link IValueManager}s sends to each other
  *
+ * The message is {@link Externalizable}: only its fields are written, as fixed-size binary values (the message type as
+ * one byte, the timestamp, the emitter's port and the key as ints), instead of the field descriptors written by the default
+ * serialization. {@link MessageCodec} writes the same fields to a {@link java.nio.ByteBuffer}.
+ *
  * Authors: Samuel Mayor, Alexandra Korukova
  */
-public class Message implements Serializable {
+public class Message implements Externalizable {
+
+    private static final long serialVersionUID = 1L;
 
     /**
      * The logical timestamp which indicates when the message was sent.
@@ -23,6 +32,11 @@ public class Message implements Serializable {
      * Used to reference the sender
      */
     private int emitterPort;
+    /**
+     * The key of the value the message is about. Every key has its own request queue: the messages of different keys
+     * are independent. Set by the {@link IValueManager} sending the message
+     */
+    private int key;
 
     /**
      * Constructor
@@ -36,6 +50,28 @@ public class Message implements Serializable {
         this.emitterPort = emitterPort;
     }
 
+    /**
+     * Constructor used by the deserialization
+     */
+    public Message() {
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        out.writeByte(messageType.ordinal());
+        out.writeInt(timestamp);
+        out.writeInt(emitterPort);
+        out.writeInt(key);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        messageType = MessageType.fromOrdinal(in.readByte());
+        timestamp = in.readInt();
+        emitterPort = in.readInt();
+        key = in.readInt();
+    }
+
     /**
      * Getter
      * @return {@link Message}'s timestamp
@@ -59,4 +95,20 @@ public class Message implements Serializable {
     public int getEmitterPort() {
         return emitterPort;
     }
+
+    /**
+     * Getter
+     * @return the key of the value the message is about
+     */
+    public int getKey() {
+        return key;
+    }
+
+    /**
+     * Setter
+     * @param key the key of the value the message is about
+     */
+    void setKey(int key) {
+        this.key = key;
+    }
 }
@@ -0,0 +1,136 @@
+package lamport;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * This class encodes the {@link Message}s to a compact binary form and decodes them, using the buffers given by the
+ * caller so that they can be reused from one message to another.
+ *
+ * DESCRIPTION:
+ * A message is encoded as one byte identifying its class, followed by the same fields as its
+ * {@link java.io.Externalizable} form, all of fixed size (big-endian):
+ * - request: kind (byte), type (byte), timestamp (int), emitter's port (int), key (int): 14 bytes
+ * - acknowledgement: + request timestamp (int)
+ * - reply: acknowledgement + value, value timestamp, value port (ints)
+ * - liberation: + request timestamp, new value (ints)
+ *
+ * Authors: Samuel Mayor, Alexandra Korukova
+ */
+public final class MessageCodec {
+
+    // the kinds of the messages, identifying their classes
+    private static final byte MESSAGE = 0;
+    private static final byte ACKNOWLEDGEMENT = 1;
+    private static final byte REPLY = 2;
+    private static final byte LIBERATION = 3;
+
+    // size of the fields common to all the messages
+    private static final int HEADER_SIZE = 2 + 3 * Integer.BYTES;
+
+    private MessageCodec() {
+    }
+
+    /**
+     * @param message the {@link Message} to encode
+     * @return the number of bytes of the encoded message
+     */
+    public static int encodedSize(Message message) {
+        if (message instanceof ReplyMessage) {
+            return HEADER_SIZE + 4 * Integer.BYTES;
+        }
+        if (message instanceof AcknowledgementMessage) {
+            return HEADER_SIZE + Integer.BYTES;
+        }
+        if (message instanceof LiberationMessage) {
+            return HEADER_SIZE + 2 * Integer.BYTES;
+        }
+        return HEADER_SIZE;
+    }
+
+    /**
+     * Writes the {@link Message} at the current position of the buffer
+     * @param message the {@link Message} to encode
+     * @param buffer the buffer, with at least {@link #encodedSize(Message)} bytes remaining
+     * @throws java.nio.BufferOverflowException if the buffer is too small
+     */
+    public static void encode(Message message, ByteBuffer buffer) {
+        buffer.put(kind(message));
+        buffer.put((byte) message.getMessageType().ordinal());
+        buffer.putInt(message.getTimestamp());
+        buffer.putInt(message.getEmitterPort());
+        buffer.putInt(message.getKey());
+        if (message instanceof AcknowledgementMessage) {
+            buffer.putInt(((AcknowledgementMessage) message).getRequestTimestamp());
+        }
+        if (message instanceof ReplyMessage) {
+            ReplyMessage reply = (ReplyMessage) message;
+            buffer.putInt(reply.getValue());
+            buffer.putInt(reply.getValueTimestamp());
+            buffer.putInt(reply.getValuePort());
+        }
+        if (message instanceof LiberationMessage) {
+            LiberationMessage liberation = (LiberationMessage) message;
+            buffer.putInt(liberation.getRequestTimestamp());
+            buffer.putInt(liberation.getNewValue());
+        }
+    }
+
+    /**
+     * Reads a {@link Message} from the current position of the buffer
+     * @param buffer the buffer holding the encoded message
+     * @return the decoded {@link Message}
+     * @throws BufferUnderflowException if the buffer does not hold the whole message
+     * @throws IllegalArgumentException if the encoded message is malformed
+     */
+    public static Message decode(ByteBuffer buffer) {
+        byte kind = buffer.get();
+        MessageType type = MessageType.fromOrdinal(buffer.get());
+        int timestamp = buffer.getInt();
+        int emitterPort = buffer.getInt();
+        int key = buffer.getInt();
+        Message message = decodeBody(buffer, kind, type, timestamp, emitterPort);
+        message.setKey(key);
+        return message;
+    }
+
+    /**
+     * Reads the fields specific to the class of the {@link Message} and creates it
+     * @return the decoded {@link Message}
+     * @throws BufferUnderflowException if the buffer does not hold the whole message
+     * @throws IllegalArgumentException if the encoded message is malformed
+     */
+    private static Message decodeBody(ByteBuffer buffer, byte kind, MessageType type, int timestamp,
+                                      int emitterPort) {
+        switch (kind) {
+            case MESSAGE:
+                return new Message(timestamp, type, emitterPort);
+            case ACKNOWLEDGEMENT:
+                return new AcknowledgementMessage(timestamp, type, emitterPort, buffer.getInt());
+            case REPLY:
+                return new ReplyMessage(timestamp, emitterPort, buffer.getInt(), buffer.getInt(), buffer.getInt(),
+                        buffer.getInt());
+            case LIBERATION:
+                return new LiberationMessage(timestamp, type, emitterPort, buffer.getInt(), buffer.getInt());
+            default:
+                throw new IllegalArgumentException("Unknown message kind: " + kind);
+        }
+    }
+
+    /**
+     * @param message a {@link Message}
+     * @return the kind identifying the class of the message
+     */
+    private static byte kind(Message message) {
+        if (message instanceof ReplyMessage) {
+            return REPLY;
+        }
+        if (message instanceof AcknowledgementMessage) {
+            return ACKNOWLEDGEMENT;
+        }
+        if (message instanceof LiberationMessage) {
+            return LIBERATION;
+        }
+        return MESSAGE;
+    }
+}
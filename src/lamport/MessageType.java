@@ -8,5 +8,25 @@ package lamport;
 public enum MessageType {
     REQUEST,
     ACKNOWLEDGEMENT,
-    LIBERATION
+    LIBERATION,
+    READ,
+    INQUIRE,
+    RELINQUISH,
+    FAILED,
+    HEARTBEAT;
+
+    private static final MessageType[] VALUES = values();
+
+    /**
+     * Returns the {@link MessageType} encoded as its ordinal in the binary messages
+     * @param ordinal the ordinal of the type
+     * @return the corresponding {@link MessageType}
+     * @throws IllegalArgumentException if there is no such type
+     */
+    public static MessageType fromOrdinal(int ordinal) {
+        if (ordinal < 0 || ordinal >= VALUES.length) {
+            throw new IllegalArgumentException("Unknown message type: " + ordinal);
+        }
+        return VALUES[ordinal];
+    }
 }
@@ -0,0 +1,40 @@
+package lamport;
+
+/**
+ * This enumeration represents the {@link MutualExclusion} algorithms a {@link ValueManager} can run
+ *
+ * Authors: Samuel Mayor, Alexandra Korukova
+ */
+public enum MutexAlgorithm {
+    LAMPORT,
+    RICART_AGRAWALA,
+    MAEKAWA;
+
+    /**
+     * Creates the algorithm
+     * @param context the {@link ValueManager} running the algorithm
+     * @param options the settings of the {@link ValueManager}
+     * @return the new {@link MutualExclusion} instance
+     */
+    MutualExclusion create(MutualExclusion.Context context, Options options) {
+        switch (this) {
+            case RICART_AGRAWALA:
+                return new RicartAgrawalaMutex(context);
+            case MAEKAWA:
+                return new MaekawaMutex(context);
+            case LAMPORT:
+            default:
+                return new LamportMutex(context, options.isSkipAck(), options.getLeaseMillis());
+        }
+    }
+
+    /**
+     * Parses the name of the algorithm as written in the options: "lamport", "ricart-agrawala" or "maekawa"
+     * @param name the name of the algorithm
+     * @return the corresponding {@link MutexAlgorithm}
+     * @throws IllegalArgumentException if the name is unknown
+     */
+    static MutexAlgorithm fromOption(String name) {
+        return valueOf(name.toUpperCase().replace('-', '_'));
+    }
+}
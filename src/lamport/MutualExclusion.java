@@ -0,0 +1,130 @@
+package lamport;
+
+/**
+ * The distributed mutual exclusion algorithm used by a {@link ValueManager} to decide when one of its requests may
+ * get the critical section.
+ *
+ * DESCRIPTION:
+ * - The {@link ValueManager} asks for the critical section with {@link #request(int)} and hands every incoming
+ * protocol {@link Message} to {@link #onMessage(Message)}, always from its event loop.
+ * - The algorithm exchanges its messages through the {@link Context} and calls
+ * {@link Context#enterCriticalSection(int)} once a local request gets the critical section. The local requests get
+ * the critical section in the order they were emitted.
+ * - A peer declared failed by the failure detector of the {@link ValueManager}, or which left the system, is removed
+ * with {@link #onPeerFailed(int)}. A peer joining the system is added with {@link #onPeerJoined(int)}.
+ * - Every implementation is selected at startup (see {@link Options}), all the nodes of the system must use the
+ * same one.
+ *
+ * Authors: Samuel Mayor, Alexandra Korukova
+ */
+interface MutualExclusion {
+
+    /**
+     * Asks for the critical section for a new local request
+     * @param timestamp the logical timestamp of the request, identifying it
+     */
+    void request(int timestamp);
+
+    /**
+     * Orders a local read with the requests of the system. Once every request ordered before the read has got the
+     * critical section and its value is committed locally, the read is ready
+     * @param timestamp the logical timestamp of the read, identifying it
+     * @param ready executed from the event loop once the read is ready
+     */
+    void read(int timestamp, Runnable ready);
+
+    /**
+     * Handles the protocol {@link Message} sent by some remote {@link IValueManager}.
+     * The local logical time is already updated with the message's timestamp
+     * @param message the received {@link Message}
+     */
+    void onMessage(Message message);
+
+    /**
+     * Removes a peer declared failed: the algorithm stops waiting for its messages and forgets its requests, so that
+     * the other nodes keep getting the critical section. {@link Context#getPeers()} already excludes the peer.
+     * The nodes may declare the failure at different times: the mutual exclusion is only guaranteed between the
+     * nodes agreeing on the live peers
+     * @param port the port of the failed peer
+     */
+    void onPeerFailed(int port);
+
+    /**
+     * Adds a peer which joined the system. {@link Context#getPeers()} already includes the peer.
+     * The logical clock of the peer was set past the clocks of all the members when it joined, so its requests are
+     * newer than the pending local ones: these do not wait for its acknowledgement, but it must learn them if the
+     * algorithm needs it to order its own requests
+     * @param port the port of the new peer
+     */
+    void onPeerJoined(int port);
+
+    /**
+     * @return number of the requests of the system waiting for the critical section or holding it, as seen by the
+     * algorithm of the current node. Only used by the metrics
+     */
+    int getQueueDepth();
+
+    /**
+     * The services a {@link MutualExclusion} algorithm needs from the {@link ValueManager} running it
+     */
+    interface Context {
+
+        /**
+         * @return the port of the current {@link ValueManager}, used as its identifier
+         */
+        int getPort();
+
+        /**
+         * @return number of the nodes of the system
+         */
+        int getNbNodes();
+
+        /**
+         * @return the ports of the other live nodes of the system
+         */
+        int[] getPeers();
+
+        /**
+         * @return the local logical time
+         */
+        int getLocalTime();
+
+        /**
+         * @return the current time in nanoseconds, which the leases are measured with
+         */
+        long getNanoTime();
+
+        /**
+         * Sends the {@link Message} to the {@link IValueManager} listening on the given port
+         * @param port the port of the receiver
+         * @param message the {@link Message} to send
+         */
+        void send(int port, Message message);
+
+        /**
+         * Sends the {@link Message} to all the other {@link IValueManager}s of the system
+         * @param message the {@link Message} to send
+         */
+        void broadcast(Message message);
+
+        /**
+         * Executes the critical section of the local request: the value of the request is committed
+         * @param requestTimestamp the timestamp of the request which got the critical section
+         * @return the {@link LiberationMessage} describing the committed value
+         */
+        LiberationMessage enterCriticalSection(int requestTimestamp);
+
+        /**
+         * Applies the value committed by some node, unless a more recent one is already stored
+         * @param value the committed value
+         * @param timestamp the logical timestamp of the commit
+         * @param writerPort the port of the node which committed the value
+         */
+        void commit(int value, int timestamp, int writerPort);
+
+        /**
+         * @return the last value committed, with its commit timestamp and writer
+         */
+        ValueSnapshot getSnapshot();
+    }
+}
@@ -0,0 +1,517 @@
+package lamport;
+
+import utils.Constants;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.rmi.RemoteException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class delivers the {@link Message}s of a {@link ValueManager} over plain TCP connections, handled by one
+ * {@link Selector} thread.
+ *
+ * DESCRIPTION:
+ * - Every node listens on the port of its RMI registry + {@link Constants#NIO_PORT_OFFSET}, and opens one persistent
+ * connection to every peer it is linked with. A node only writes on the connections it opened and only reads from
+ * the connections it accepted, so the messages sent to a peer keep their order.
+ * - The messages are encoded with {@link MessageCodec}, each one preceded by its length (int). The messages queued
+ * for a peer are encoded together into reused buffers and written with one gathering write.
+ * - The decoded messages are handed to the receiver given at construction, from the selector thread.
+ * - The connections are opened by the selector thread without blocking, all the peers in parallel. A peer which
+ * refuses the connection before it was ever reached is retried every {@link Constants#SEND_RETRY_MILLIS}: it may not
+ * be started yet. Its messages wait in its queue.
+ * - A peer whose connection is broken, or whose socket does not accept any byte during
+ * {@link Constants#SEND_DEADLINE_MILLIS}, is reported failed and its connection is closed.
+ *
+ * Authors: Samuel Mayor, Alexandra Korukova
+ */
+class NioTransport implements Transport, Runnable {
+
+    private static final Logger LOG = Logger.getLogger(NioTransport.class.getName());
+
+    // size of the buffers the messages are encoded into
+    private static final int CHUNK_SIZE = 16 * 1024;
+    // maximum number of the buffers written by one gathering write
+    private static final int MAX_CHUNKS = 8;
+    // size of the length preceding every message
+    private static final int FRAME_HEADER_SIZE = Integer.BYTES;
+
+    /**
+     * The links with the peers. The keys are the ports of their registries
+     */
+    private final Map<Integer, Peer> peers = new ConcurrentHashMap<>();
+
+    /**
+     * The peers having messages to send, waiting for the selector thread
+     */
+    private final Queue<Peer> dirtyPeers = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The new connections to register with the selector
+     */
+    private final Queue<Peer> newPeers = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Handles the received {@link Message}s
+     */
+    private final Consumer<Message> receiver;
+
+    /**
+     * Called with the port of a peer which cannot be delivered its messages anymore
+     */
+    private final IntConsumer onFailure;
+
+    private final Selector selector;
+
+    private final ServerSocketChannel server;
+
+    private final Thread thread;
+
+    private volatile boolean running = true;
+
+    /**
+     * Constructor. Starts listening for the connections of the peers
+     * @param port the port of the registry of the current {@link ValueManager}
+     * @param receiver handles the received {@link Message}s
+     * @param onFailure called with the port of a peer which cannot be delivered its messages anymore
+     * @throws RemoteException if the listening socket cannot be opened
+     */
+    NioTransport(int port, Consumer<Message> receiver, IntConsumer onFailure) throws RemoteException {
+        this.receiver = receiver;
+        this.onFailure = onFailure;
+        try {
+            selector = Selector.open();
+            server = ServerSocketChannel.open();
+            server.bind(new InetSocketAddress(Constants.SERVER_HOST, port + Constants.NIO_PORT_OFFSET));
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            throw new RemoteException("Unable to listen on port " + (port + Constants.NIO_PORT_OFFSET), e);
+        }
+        thread = new Thread(this, "nio-" + port);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void connect(int port) {
+        Peer peer = new Peer(port);
+        if (peers.putIfAbsent(port, peer) == null) {
+            newPeers.add(peer);
+            selector.wakeup();
+        }
+    }
+
+    @Override
+    public void disconnect(int port) {
+        Peer peer = peers.remove(port);
+        if (peer != null && peer.channel != null) {
+            close(peer.channel);
+        }
+    }
+
+    @Override
+    public void send(int port, Message message) {
+        Peer peer = peers.get(port);
+        if (peer == null) {
+            LOG.log(Level.SEVERE, () -> "No " + IValueManager.class.getSimpleName() + " linked on port " + port);
+            return;
+        }
+        enqueue(peer, message);
+    }
+
+    @Override
+    public void broadcast(Message message) {
+        for (Peer peer : peers.values()) {
+            enqueue(peer, message);
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    /**
+     * Queues the message for the peer and, if it is not done yet, asks the selector thread to send it
+     * @param peer the receiver
+     * @param message the {@link Message} to send
+     */
+    private void enqueue(Peer peer, Message message) {
+        peer.outbox.add(message);
+        if (peer.scheduled.compareAndSet(false, true)) {
+            dirtyPeers.add(peer);
+            selector.wakeup();
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                selector.select(Constants.SEND_RETRY_MILLIS);
+                Peer peer;
+                while ((peer = newPeers.poll()) != null) {
+                    if (peers.get(peer.port) == peer) {
+                        startConnect(peer);
+                    }
+                }
+                while ((peer = dirtyPeers.poll()) != null) {
+                    peer.scheduled.set(false);
+                    if (peer.key != null && peer.key.isValid() && peer.channel.isConnected()) {
+                        flushOrClose(peer);
+                    }
+                }
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    handle(key);
+                }
+                checkPeers();
+            }
+        } catch (IOException e) {
+            LOG.log(Level.SEVERE, e.getMessage(), e);
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                close(key.channel());
+            }
+            close(selector);
+        }
+    }
+
+    /**
+     * Opens the connection to the peer without blocking, unless it is already open or being opened: a new peer may be
+     * connected by {@link #checkPeers()} before it is taken from {@link #newPeers}
+     * @param peer the peer
+     */
+    private void startConnect(Peer peer) {
+        if (peer.channel != null) {
+            return;
+        }
+        try {
+            peer.channel = SocketChannel.open();
+            peer.channel.configureBlocking(false);
+            peer.channel.socket().setTcpNoDelay(true);
+            if (peer.channel.connect(
+                    new InetSocketAddress(Constants.SERVER_HOST, peer.port + Constants.NIO_PORT_OFFSET))) {
+                peer.key = peer.channel.register(selector, 0, peer);
+                connected(peer);
+            } else {
+                peer.key = peer.channel.register(selector, SelectionKey.OP_CONNECT, peer);
+            }
+        } catch (IOException e) {
+            connectFailed(peer, e);
+        }
+    }
+
+    /**
+     * Sends the messages queued while the connection to the peer was being opened
+     * @param peer the peer
+     */
+    private void connected(Peer peer) {
+        peer.reached = true;
+        peer.key.interestOps(0);
+        flushOrClose(peer);
+    }
+
+    /**
+     * Retries the connection later if the peer was never reached, reports its failure otherwise
+     * @param peer the peer
+     * @param e the cause
+     */
+    private void connectFailed(Peer peer, IOException e) {
+        if (peer.reached) {
+            LOG.log(Level.SEVERE, e, () -> "Unable to connect to " + peer);
+            fail(peer);
+            return;
+        }
+        if (peer.key != null) {
+            peer.key.cancel();
+        }
+        close(peer.channel);
+        peer.channel = null;
+        peer.key = null;
+        peer.retryAt = System.currentTimeMillis() + Constants.SEND_RETRY_MILLIS;
+    }
+
+    /**
+     * Retries the connections due and reports the peers whose socket did not accept any byte since the deadline
+     */
+    private void checkPeers() {
+        long now = System.currentTimeMillis();
+        for (Peer peer : peers.values()) {
+            if (peer.channel == null && peer.retryAt <= now) {
+                startConnect(peer);
+            } else if (peer.blockedSince != 0 && now - peer.blockedSince >= Constants.SEND_DEADLINE_MILLIS) {
+                LOG.log(Level.SEVERE, () -> "No byte written to " + peer + " for "
+                        + Constants.SEND_DEADLINE_MILLIS + " ms");
+                fail(peer);
+            }
+        }
+    }
+
+    /**
+     * Closes the connection to a failed peer and reports it
+     * @param peer the peer
+     */
+    private void fail(Peer peer) {
+        if (peer.key != null) {
+            peer.key.cancel();
+        }
+        if (peer.channel != null) {
+            close(peer.channel);
+        }
+        if (peers.remove(peer.port, peer)) {
+            onFailure.accept(peer.port);
+        }
+    }
+
+    /**
+     * Handles the ready operation of a channel
+     * @param key the selection key of the channel
+     */
+    private void handle(SelectionKey key) {
+        try {
+            if (!key.isValid()) {
+                return;
+            }
+            if (key.isAcceptable()) {
+                SocketChannel channel = server.accept();
+                if (channel != null) {
+                    channel.configureBlocking(false);
+                    channel.register(selector, SelectionKey.OP_READ, ByteBuffer.allocate(CHUNK_SIZE));
+                }
+            } else if (key.isConnectable()) {
+                Peer peer = (Peer) key.attachment();
+                try {
+                    if (peer.channel.finishConnect()) {
+                        connected(peer);
+                    }
+                } catch (IOException e) {
+                    connectFailed(peer, e);
+                }
+            } else if (key.isReadable()) {
+                read(key);
+            } else if (key.isWritable()) {
+                flushOrClose((Peer) key.attachment());
+            }
+        } catch (IOException e) {
+            LOG.log(Level.SEVERE, e.getMessage(), e);
+            key.cancel();
+            close(key.channel());
+        }
+    }
+
+    /**
+     * Reads the available bytes of an accepted connection and hands the complete messages to the receiver
+     * @param key the selection key of the connection
+     * @throws IOException if the connection is broken
+     */
+    private void read(SelectionKey key) throws IOException {
+        ByteBuffer buffer = (ByteBuffer) key.attachment();
+        if (((SocketChannel) key.channel()).read(buffer) < 0) {
+            key.cancel();
+            close(key.channel());
+            return;
+        }
+        buffer.flip();
+        while (buffer.remaining() >= FRAME_HEADER_SIZE) {
+            int length = buffer.getInt(buffer.position());
+            if (buffer.remaining() < FRAME_HEADER_SIZE + length) {
+                break;
+            }
+            buffer.position(buffer.position() + FRAME_HEADER_SIZE);
+            int end = buffer.position() + length;
+            int limit = buffer.limit();
+            buffer.limit(end);
+            Message message = MessageCodec.decode(buffer);
+            buffer.limit(limit);
+            buffer.position(end);
+            receiver.accept(message);
+        }
+        buffer.compact();
+        if (buffer.remaining() == 0) {
+            // the frame is larger than the buffer
+            ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+            buffer.flip();
+            larger.put(buffer);
+            key.attach(larger);
+        }
+    }
+
+    /**
+     * Writes the queued messages of the peer until there is none left or the socket cannot accept more bytes.
+     * In the later case, the rest is written once the socket is writable again
+     * @param peer the peer
+     * @throws IOException if the connection is broken
+     */
+    private void flush(Peer peer) throws IOException {
+        while (true) {
+            if (peer.count == 0 && !peer.fill()) {
+                peer.key.interestOps(0);
+                return;
+            }
+            if (peer.channel.write(peer.chunks, peer.offset, peer.count - peer.offset) > 0) {
+                peer.blockedSince = 0;
+            }
+            while (peer.offset < peer.count && !peer.chunks[peer.offset].hasRemaining()) {
+                peer.offset++;
+            }
+            if (peer.offset < peer.count) {
+                peer.key.interestOps(SelectionKey.OP_WRITE);
+                if (peer.blockedSince == 0) {
+                    peer.blockedSince = System.currentTimeMillis();
+                }
+                return;
+            }
+            peer.offset = 0;
+            peer.count = 0;
+        }
+    }
+
+    /**
+     * Writes the queued messages of the peer, closing the connection if it is broken
+     * @param peer the peer
+     */
+    private void flushOrClose(Peer peer) {
+        try {
+            flush(peer);
+        } catch (IOException e) {
+            LOG.log(Level.SEVERE, e, () -> "Connection to " + peer + " lost");
+            fail(peer);
+        }
+    }
+
+    /**
+     * Closes the resource, logging the failure if any
+     * @param closeable the resource to close
+     */
+    private static void close(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * The outgoing connection to a peer and the messages waiting to be written on it
+     */
+    private static class Peer {
+
+        /**
+         * The messages queued by the senders
+         */
+        private final Queue<Message> outbox = new ConcurrentLinkedQueue<>();
+
+        /**
+         * true if the peer is waiting in {@link #dirtyPeers}
+         */
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        /**
+         * The buffers written by the gathering writes, reused from one write to another
+         */
+        private final ByteBuffer[] chunks = new ByteBuffer[MAX_CHUNKS];
+
+        /**
+         * The port of the registry of the peer
+         */
+        private final int port;
+
+        /**
+         * Number of the buffers holding the bytes of the current write, and index of the first one not entirely
+         * written yet
+         */
+        private int count;
+        private int offset;
+
+        /**
+         * The message which did not fit in the buffers of the previous write
+         */
+        private Message carried;
+
+        /**
+         * The time in milliseconds since which the socket does not accept the bytes to write, 0 if it does
+         */
+        private long blockedSince;
+
+        /**
+         * true once the connection to the peer has been opened
+         */
+        private boolean reached;
+
+        /**
+         * The time in milliseconds from which the connection is opened again, if the peer was never reached
+         */
+        private long retryAt;
+
+        private volatile SocketChannel channel;
+
+        private SelectionKey key;
+
+        /**
+         * Constructor
+         * @param port the port of the registry of the peer
+         */
+        Peer(int port) {
+            this.port = port;
+        }
+
+        /**
+         * Encodes as many queued messages as the buffers can hold
+         * @return false if there was no message to encode
+         */
+        boolean fill() {
+            Message message = carried != null ? carried : outbox.poll();
+            carried = null;
+            while (message != null) {
+                int size = FRAME_HEADER_SIZE + MessageCodec.encodedSize(message);
+                ByteBuffer chunk = count == 0 ? null : chunks[count - 1];
+                if (chunk == null || chunk.remaining() < size) {
+                    if (count == MAX_CHUNKS) {
+                        carried = message;
+                        break;
+                    }
+                    chunk = chunks[count];
+                    if (chunk == null || chunk.capacity() < size) {
+                        chunk = ByteBuffer.allocateDirect(Math.max(CHUNK_SIZE, size));
+                        chunks[count] = chunk;
+                    }
+                    chunk.clear();
+                    count++;
+                }
+                chunk.putInt(size - FRAME_HEADER_SIZE);
+                MessageCodec.encode(message, chunk);
+                message = outbox.poll();
+            }
+            for (int i = 0; i < count; i++) {
+                chunks[i].flip();
+            }
+            return count > 0;
+        }
+
+        @Override
+        public String toString() {
+            return "peer " + port;
+        }
+    }
+}
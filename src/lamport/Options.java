@@ -0,0 +1,287 @@
+package lamport;
+
+import utils.Constants;
+
+/**
+ * This class holds the optional settings of a {@link ValueManager}.
+ *
+ * DESCRIPTION:
+ * The options are passed to {@link ValueManager#main(String...)} after the ports of the other nodes, as
+ * "name=value" arguments. Every option which is not passed keeps its default value defined in {@link Constants}.
+ * Supported options:
+ * - pipeline=K - maximum number of the requests a {@link ValueManager} may have pending at the same time for a key
+ * - batch=S - maximum number of the values set by the client committed in one critical section (1 disables batching)
+ * - linger=T - time in milliseconds a new batch waits for more values before being requested
+ * - mutex=lamport|ricart-agrawala|maekawa - the {@link MutexAlgorithm} used to get the critical section. The clients
+ * may cache the values (see {@link IValueManager#addValueListener(IValueListener)}) with lamport only
+ * - skip-ack=true|false - if true, the Lamport algorithm does not acknowledge a request when a newer local request
+ * was already sent to its emitter
+ * - lease=T - duration in milliseconds of the lease a node keeps after a critical section of the Lamport algorithm
+ * which no other request contended: its next writes are committed with the liberation alone until a request of
+ * another node arrives (0 disables the lease). With the failure detection, it must be shorter than the heartbeat
+ * interval plus {@link Constants#HEARTBEAT_PAUSE_MILLIS}, the silence granted to a peer before it may be declared
+ * failed
+ * - transport=rmi|nio - the {@link TransportType} carrying the messages between the value managers
+ * - wal=DIRECTORY - the directory of the {@link WriteAheadLog} the values and the clock are recovered from after a
+ * restart (no log by default)
+ * - trace=DIRECTORY - the directory of the {@link EventTrace} the events are recorded to, decoded by
+ * {@link TraceDecoder} (no trace by default)
+ * - join=PORT - the port of a member of a running system, which the value manager joins when it is started. The other
+ * members are learnt from it, so the ports of the other nodes may be omitted (N = 1)
+ * - heartbeat=T - interval in milliseconds between two heartbeats sent to every peer, from which the failed peers
+ * are detected (0 disables the failure detection)
+ *
+ * Authors: Samuel Mayor, Alexandra Korukova
+ */
+public class Options {
+
+    /**
+     * Maximum number of the requests a {@link ValueManager} may have pending at the same time for a key
+     */
+    private int maxPendingRequests = Constants.MAX_PENDING_REQUESTS;
+
+    /**
+     * Maximum number of the values committed in one critical section
+     */
+    private int batchMaxSize = Constants.BATCH_MAX_SIZE;
+
+    /**
+     * Time in milliseconds a new batch waits for more values before being requested
+     */
+    private long batchLingerMillis = Constants.BATCH_LINGER_MILLIS;
+
+    /**
+     * The mutual exclusion algorithm
+     */
+    private MutexAlgorithm mutex = MutexAlgorithm.LAMPORT;
+
+    /**
+     * If true, the Lamport algorithm skips the acknowledgements implied by newer requests
+     */
+    private boolean skipAck;
+
+    /**
+     * Duration in milliseconds of the lease of the Lamport algorithm, 0 if there is no lease
+     */
+    private long leaseMillis = Constants.LEASE_MILLIS;
+
+    /**
+     * The transport carrying the messages between the value managers
+     */
+    private TransportType transport = TransportType.RMI;
+
+    /**
+     * The directory of the write-ahead log, null if the state is not logged
+     */
+    private String walDirectory;
+
+    /**
+     * The directory of the event trace, null if the events are not recorded
+     */
+    private String traceDirectory;
+
+    /**
+     * Interval in milliseconds between two heartbeats, 0 if the failures are not detected
+     */
+    private long heartbeatMillis = Constants.HEARTBEAT_INTERVAL_MILLIS;
+
+    /**
+     * The port of a member of the system to join when started, 0 if the members are given by the arguments only
+     */
+    private int joinPort;
+
+    /**
+     * Parses the "name=value" options
+     * @param args the main program arguments
+     * @param from the index of the first option in args
+     * @return the parsed {@link Options}
+     * @throws IllegalArgumentException if an option is unknown, malformed or inconsistent with the others
+     */
+    public static Options parse(String[] args, int from) {
+        Options options = new Options();
+        for (int i = from; i < args.length; i++) {
+            int separator = args[i].indexOf('=');
+            if (separator < 0) {
+                throw new IllegalArgumentException("Malformed option: " + args[i]);
+            }
+            options.set(args[i].substring(0, separator), args[i].substring(separator + 1));
+        }
+        options.validate();
+        return options;
+    }
+
+    /**
+     * Sets the option
+     * @param name the name of the option
+     * @param value the value of the option
+     * @throws IllegalArgumentException if the option is unknown or its value is malformed
+     */
+    private void set(String name, String value) {
+        switch (name) {
+            case "pipeline":
+                maxPendingRequests = positive(name, value);
+                break;
+            case "batch":
+                batchMaxSize = positive(name, value);
+                break;
+            case "linger":
+                batchLingerMillis = nonNegative(name, value);
+                break;
+            case "mutex":
+                mutex = MutexAlgorithm.fromOption(value);
+                break;
+            case "skip-ack":
+                skipAck = Boolean.parseBoolean(value);
+                break;
+            case "lease":
+                leaseMillis = nonNegative(name, value);
+                break;
+            case "transport":
+                transport = TransportType.valueOf(value.toUpperCase());
+                break;
+            case "wal":
+                walDirectory = value;
+                break;
+            case "trace":
+                traceDirectory = value;
+                break;
+            case "join":
+                joinPort = positive(name, value);
+                break;
+            case "heartbeat":
+                heartbeatMillis = nonNegative(name, value);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown option: " + name);
+        }
+    }
+
+    /**
+     * Parses a strictly positive integer option
+     * @param name the name of the option
+     * @param value the value of the option
+     * @return the parsed value
+     */
+    private static int positive(String name, String value) {
+        int parsed = Integer.parseInt(value);
+        if (parsed < 1) {
+            throw new IllegalArgumentException(name + " must be positive: " + value);
+        }
+        return parsed;
+    }
+
+    /**
+     * Parses a duration option, which may be 0
+     * @param name the name of the option
+     * @param value the value of the option
+     * @return the parsed value
+     */
+    private static long nonNegative(String name, String value) {
+        long parsed = Long.parseLong(value);
+        if (parsed < 0) {
+            throw new IllegalArgumentException(name + " must not be negative: " + value);
+        }
+        return parsed;
+    }
+
+    /**
+     * Checks the options which depend on each other: a lease must end before its holder may be declared failed, or
+     * the other nodes could get the critical section while it still commits values under the lease
+     * @throws IllegalArgumentException if the lease is not shorter than the silence granted to a peer
+     */
+    private void validate() {
+        long detection = heartbeatMillis + Constants.HEARTBEAT_PAUSE_MILLIS;
+        if (heartbeatMillis > 0 && leaseMillis >= detection) {
+            throw new IllegalArgumentException("lease must be shorter than heartbeat + "
+                    + Constants.HEARTBEAT_PAUSE_MILLIS + " (" + detection + "): " + leaseMillis);
+        }
+    }
+
+    /**
+     * Getter
+     * @return maximum number of the requests a {@link ValueManager} may have pending at the same time for a key
+     */
+    public int getMaxPendingRequests() {
+        return maxPendingRequests;
+    }
+
+    /**
+     * Getter
+     * @return maximum number of the values committed in one critical section
+     */
+    public int getBatchMaxSize() {
+        return batchMaxSize;
+    }
+
+    /**
+     * Getter
+     * @return time in milliseconds a new batch waits for more values before being requested
+     */
+    public long getBatchLingerMillis() {
+        return batchLingerMillis;
+    }
+
+    /**
+     * Getter
+     * @return the mutual exclusion algorithm
+     */
+    public MutexAlgorithm getMutex() {
+        return mutex;
+    }
+
+    /**
+     * Getter
+     * @return true if the Lamport algorithm skips the acknowledgements implied by newer requests
+     */
+    public boolean isSkipAck() {
+        return skipAck;
+    }
+
+    /**
+     * Getter
+     * @return duration in milliseconds of the lease of the Lamport algorithm, 0 if there is no lease
+     */
+    public long getLeaseMillis() {
+        return leaseMillis;
+    }
+
+    /**
+     * Getter
+     * @return the transport carrying the messages between the value managers
+     */
+    public TransportType getTransport() {
+        return transport;
+    }
+
+    /**
+     * Getter
+     * @return the directory of the write-ahead log, null if the state is not logged
+     */
+    public String getWalDirectory() {
+        return walDirectory;
+    }
+
+    /**
+     * Getter
+     * @return the directory of the event trace, null if the events are not recorded
+     */
+    public String getTraceDirectory() {
+        return traceDirectory;
+    }
+
+    /**
+     * Getter
+     * @return interval in milliseconds between two heartbeats, 0 if the failures are not detected
+     */
+    public long getHeartbeatMillis() {
+        return heartbeatMillis;
+    }
+
+    /**
+     * Getter
+     * @return the port of a member of the system to join when started, 0 if there is none
+     */
+    public int getJoinPort() {
+        return joinPort;
+    }
+}
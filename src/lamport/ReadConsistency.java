@@ -0,0 +1,26 @@
+package lamport;
+
+/**
+ * This enumeration represents the consistency levels of the reads served by a {@link IValueManager}, from the
+ * cheapest to the strongest one. The mean latency observed for each level is given by
+ * {@link IValueManager#getReadLatency(ReadConsistency)}
+ *
+ * Authors: Samuel Mayor, Alexandra Korukova
+ */
+public enum ReadConsistency {
+    /**
+     * The last value committed locally, returned at once. No message is sent, the value may be stale
+     */
+    LOCAL,
+    /**
+     * Waits until all the values set on the same {@link IValueManager} before the read are committed locally
+     * (read-your-writes). No message is sent, the read waits for the pending local writes only
+     */
+    SESSION,
+    /**
+     * The read is ordered with the writes by the mutual exclusion algorithm: it returns the value committed by the
+     * last write ordered before it. Costs one round trip with every node of the system, 2(N-1) messages, but no
+     * liberation message
+     */
+    ORDERED
+}
@@ -0,0 +1,89 @@
+package lamport;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+/**
+ * This class represents the reply of the Ricart-Agrawala algorithm: the permission to get the critical section given
+ * to the emitter of a request. As the critical section is not liberated with a message sent to all the nodes, the
+ * reply also carries the last value committed known by its emitter
+ *
+ * Authors: Samuel Mayor, Alexandra Korukova
+ */
+public class ReplyMessage extends AcknowledgementMessage {
+
+    private static final long serialVersionUID = 1L;
+
+    // the last value committed known by the emitter
+    private int value;
+
+    // the logical timestamp of the commit of the value
+    private int valueTimestamp;
+
+    // the port of the node which committed the value
+    private int valuePort;
+
+    /**
+     * Constructor
+     * @param timestamp the logical timestamp of the {@link Message}
+     * @param emitterPort emitter's port
+     * @param requestTimestamp the timestamp of the request the emitter replies to
+     * @param value the last value committed known by the emitter
+     * @param valueTimestamp the logical timestamp of the commit of the value
+     * @param valuePort the port of the node which committed the value
+     */
+    public ReplyMessage(int timestamp, int emitterPort, int requestTimestamp, int value, int valueTimestamp,
+                        int valuePort) {
+        super(timestamp, emitterPort, requestTimestamp);
+        this.value = value;
+        this.valueTimestamp = valueTimestamp;
+        this.valuePort = valuePort;
+    }
+
+    /**
+     * Constructor used by the deserialization
+     */
+    public ReplyMessage() {
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        super.writeExternal(out);
+        out.writeInt(value);
+        out.writeInt(valueTimestamp);
+        out.writeInt(valuePort);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        super.readExternal(in);
+        value = in.readInt();
+        valueTimestamp = in.readInt();
+        valuePort = in.readInt();
+    }
+
+    /**
+     * Getter
+     * @return the last value committed known by the emitter
+     */
+    public int getValue() {
+        return value;
+    }
+
+    /**
+     * Getter
+     * @return the logical timestamp of the commit of the value
+     */
+    public int getValueTimestamp() {
+        return valueTimestamp;
+    }
+
+    /**
+     * Getter
+     * @return the port of the node which committed the value
+     */
+    public int getValuePort() {
+        return valuePort;
+    }
+}
@@ -0,0 +1,130 @@
+package lamport;
+
+import java.util.Arrays;
+
+/**
+ * The request queue of the Lamport algorithm: the pending requests of all the nodes, the oldest timestamp first and,
+ * for the same timestamp, the smaller port (id of the emitter) first.
+ *
+ * DESCRIPTION:
+ * A request is identified by its timestamp and the port of its emitter, packed in one long key (the timestamp in the
+ * high bits, the port in the low bits: {@code timestamp << 32 | port}) so that the natural order of the keys is the
+ * order of the requests. The keys are kept sorted in a primitive array:
+ * - the oldest request is read in constant time
+ * - a request is found by binary search, then inserted or removed by shifting the keys after it, which is a plain
+ * memory copy of a few longs for a queue holding a few requests per node
+ *
+ * Authors: Samuel Mayor, Alexandra Korukova
+ */
+class RequestQueue {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * The keys of the requests, sorted from the oldest request to the newest one
+     */
+    private long[] keys = new long[INITIAL_CAPACITY];
+
+    /**
+     * Number of the requests of the queue
+     */
+    private int size;
+
+    /**
+     * Adds the request to the queue. Does nothing if it is already queued
+     * @param timestamp the timestamp of the request
+     * @param port the port of the emitter of the request
+     */
+    void add(int timestamp, int port) {
+        long key = key(timestamp, port);
+        int index = Arrays.binarySearch(keys, 0, size, key);
+        if (index >= 0) {
+            return;
+        }
+        index = -index - 1;
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+        }
+        System.arraycopy(keys, index, keys, index + 1, size - index);
+        keys[index] = key;
+        size++;
+    }
+
+    /**
+     * Removes the request from the queue
+     * @param timestamp the timestamp of the request
+     * @param port the port of the emitter of the request
+     * @return true if the request was queued
+     */
+    boolean remove(int timestamp, int port) {
+        int index = Arrays.binarySearch(keys, 0, size, key(timestamp, port));
+        if (index < 0) {
+            return false;
+        }
+        System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+        size--;
+        return true;
+    }
+
+    /**
+     * Removes all the requests of an emitter
+     * @param port the port of the emitter
+     * @return number of the removed requests
+     */
+    int removeEmitter(int port) {
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if ((int) keys[i] != port) {
+                keys[kept++] = keys[i];
+            }
+        }
+        int removed = size - kept;
+        size = kept;
+        return removed;
+    }
+
+    /**
+     * Removes the oldest request of the queue
+     */
+    void removeFirst() {
+        System.arraycopy(keys, 1, keys, 0, size - 1);
+        size--;
+    }
+
+    /**
+     * @return true if there is no pending request
+     */
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return number of the pending requests
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the timestamp of the oldest request. The queue must not be empty
+     */
+    int firstTimestamp() {
+        return (int) (keys[0] >>> 32);
+    }
+
+    /**
+     * @return the port of the emitter of the oldest request. The queue must not be empty
+     */
+    int firstPort() {
+        return (int) keys[0];
+    }
+
+    /**
+     * @param timestamp the timestamp of the request
+     * @param port the port of the emitter of the request
+     * @return the key of the request, ordered as the requests
+     */
+    private static long key(int timestamp, int port) {
+        return ((long) timestamp << 32) | (port & 0xFFFFFFFFL);
+    }
+}
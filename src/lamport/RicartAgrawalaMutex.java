@@ -0,0 +1,163 @@
+package lamport;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The Ricart-Agrawala mutual exclusion algorithm.
+ *
+ * DESCRIPTION:
+ * - A request is sent to all the other nodes. A node receiving it replies at once, unless one of its own pending
+ * requests is older (in the order of the {@link RequestQueue} keys, {@code timestamp << 32 | port}): the reply is
+ * then deferred until this request has got the critical section.
+ * - A local request gets the critical section once all the other nodes have replied to it. The deferred replies
+ * liberate the critical section, so no liberation message is sent: 2(N-1) messages per critical section instead of
+ * the 3(N-1) of the Lamport algorithm.
+ * - The committed values are not broadcast either. Every reply carries the last value known by its emitter, so a
+ * node gets the newest value when its request gets the critical section, and the nodes waiting for the emitter of a
+ * critical section get its value with the deferred replies. A node which does not request the critical section may
+ * therefore keep an older value until its next request.
+ * - An ordered read is a request whose critical section commits nothing: the replies carry the newest value, so the
+ * read returns the value of the last critical section before it.
+ *
+ * Authors: Samuel Mayor, Alexandra Korukova
+ */
+class RicartAgrawalaMutex implements MutualExclusion {
+
+    /**
+     * The {@link ValueManager} running the algorithm
+     */
+    private final Context context;
+
+    /**
+     * The peers which replied to the local requests which did not get the critical section yet
+     */
+    private final AckTracker replies;
+
+    /**
+     * The tasks to run once the pending local reads get the critical section.
+     * The keys of the map are the timestamps of the reads
+     */
+    private final Map<Integer, Runnable> readCallbacks = new HashMap<>();
+
+    /**
+     * The remote requests whose reply is deferred until the older local requests get the critical section
+     */
+    private final List<Message> deferred = new ArrayList<>();
+
+    /**
+     * Constructor
+     * @param context the {@link ValueManager} running the algorithm
+     */
+    RicartAgrawalaMutex(Context context) {
+        this.context = context;
+        replies = new AckTracker(context.getPeers());
+    }
+
+    @Override
+    public void request(int timestamp) {
+        replies.add(timestamp);
+        context.broadcast(new Message(timestamp, MessageType.REQUEST, context.getPort()));
+        checkCriticalSection();
+    }
+
+    @Override
+    public void read(int timestamp, Runnable ready) {
+        readCallbacks.put(timestamp, ready);
+        request(timestamp);
+    }
+
+    @Override
+    public void onMessage(Message message) {
+        switch (message.getMessageType()) {
+            case REQUEST:
+                if (hasOlderRequest(message)) {
+                    deferred.add(message);
+                } else {
+                    reply(message);
+                }
+                break;
+            case ACKNOWLEDGEMENT:
+                ReplyMessage reply = (ReplyMessage) message;
+                context.commit(reply.getValue(), reply.getValueTimestamp(), reply.getValuePort());
+                if (replies.acknowledge(reply.getRequestTimestamp(), reply.getEmitterPort())) {
+                    checkCriticalSection();
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unexpected message type: " + message.getMessageType());
+        }
+    }
+
+    @Override
+    public void onPeerFailed(int port) {
+        replies.removePeer(port);
+        deferred.removeIf(request -> request.getEmitterPort() == port);
+        checkCriticalSection();
+    }
+
+    @Override
+    public void onPeerJoined(int port) {
+        // the requests of the new node are newer than the pending local ones: it would reply at once
+        replies.addPeer(port);
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return replies.size() + deferred.size();
+    }
+
+    /**
+     * @param request a remote request
+     * @return true if a pending local request is older than the remote one
+     */
+    private boolean hasOlderRequest(Message request) {
+        if (replies.isEmpty()) {
+            return false;
+        }
+        int oldestTimestamp = replies.firstTimestamp();
+        return oldestTimestamp < request.getTimestamp()
+                || (oldestTimestamp == request.getTimestamp() && context.getPort() < request.getEmitterPort());
+    }
+
+    /**
+     * Sends the reply to the remote request, with the last value committed known by the current node
+     * @param request the remote request
+     */
+    private void reply(Message request) {
+        ValueSnapshot snapshot = context.getSnapshot();
+        context.send(request.getEmitterPort(), new ReplyMessage(context.getLocalTime(), context.getPort(),
+                request.getTimestamp(), snapshot.getValue(), snapshot.getTimestamp(), snapshot.getWriterPort()));
+    }
+
+    /**
+     * Gives the critical section to the oldest local requests which got the replies of all the other nodes, one
+     * after another, then sends the deferred replies which no pending local request precedes anymore
+     */
+    private void checkCriticalSection() {
+        boolean entered = false;
+        while (!replies.isEmpty() && replies.isFirstAcknowledged()) {
+            int timestamp = replies.removeFirst();
+            Runnable read = readCallbacks.remove(timestamp);
+            if (read != null) {
+                read.run();
+            } else {
+                context.enterCriticalSection(timestamp);
+            }
+            entered = true;
+        }
+        if (entered) {
+            Iterator<Message> it = deferred.iterator();
+            while (it.hasNext()) {
+                Message request = it.next();
+                if (!hasOlderRequest(request)) {
+                    it.remove();
+                    reply(request);
+                }
+            }
+        }
+    }
+}
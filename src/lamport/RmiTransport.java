@@ -0,0 +1,229 @@
+package lamport;
+
+import utils.Constants;
+
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.IntConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class delivers the {@link Message}s of a {@link ValueManager} to the other {@link IValueManager}s of the system
+ * by calling their {@link IValueManager#acceptMessage(Message)} remote method.
+ *
+ * DESCRIPTION:
+ * - Every remote {@link IValueManager} has its own outbound queue drained by a dedicated sender thread, so the
+ * messages are sent to all the peers in parallel and a slow peer only delays the messages addressed to it.
+ * - The messages sent to a given peer are delivered in the order they were queued (FIFO channel), which is
+ * required by the Lamport algorithm.
+ * - Sending a message never blocks the caller: the remote invocation is done by the sender thread, so the RMI thread
+ * handling an incoming {@link Message} is released as soon as the answer is queued.
+ * - The stub of a peer is resolved by its sender thread before the first message, so the peers are looked up in
+ * parallel, and kept in the {@link StubCache} shared with the {@link ValueManager}. A message which cannot be delivered
+ * to a peer never reached is sent again until the peer is started.
+ * - A message which cannot be delivered to a peer reached before is sent again every
+ * {@link Constants#SEND_RETRY_MILLIS}, the next ones wait. If it still fails {@link Constants#SEND_DEADLINE_MILLIS}
+ * after the first attempt, the peer is reported failed and its sender thread stops. The remote calls themselves are
+ * bounded by the RMI timeouts (see {@link ValueManager#main(String...)}).
+ * - The duration of every successful call is recorded in the {@link LatencyHistogram} of the peer.
+ *
+ * Authors: Samuel Mayor, Alexandra Korukova
+ */
+class RmiTransport implements Transport {
+
+    private static final Logger LOG = Logger.getLogger(RmiTransport.class.getName());
+
+    /**
+     * This map associates the port of a remote {@link IValueManager} with the sender delivering its messages
+     */
+    private final Map<Integer, PeerSender> senders = new ConcurrentHashMap<>();
+
+    /**
+     * The stubs of the peers
+     */
+    private final StubCache stubs;
+
+    /**
+     * Gives the histograms of the calls to the peers
+     */
+    private final ValueManagerMetrics metrics;
+
+    /**
+     * Called with the port of a peer which cannot be delivered its messages anymore
+     */
+    private final IntConsumer onFailure;
+
+    /**
+     * Constructor
+     * @param stubs the stubs of the peers
+     * @param metrics gives the histograms of the calls to the peers
+     * @param onFailure called with the port of a peer which cannot be delivered its messages anymore
+     */
+    RmiTransport(StubCache stubs, ValueManagerMetrics metrics, IntConsumer onFailure) {
+        this.stubs = stubs;
+        this.metrics = metrics;
+        this.onFailure = onFailure;
+    }
+
+    @Override
+    public void connect(int port) {
+        senders.computeIfAbsent(port, p -> {
+            PeerSender sender = new PeerSender(p, stubs, metrics.peerCallLatency(p), onFailure);
+            sender.start();
+            return sender;
+        });
+    }
+
+    @Override
+    public void disconnect(int port) {
+        PeerSender sender = senders.remove(port);
+        if (sender != null) {
+            sender.interrupt();
+        }
+    }
+
+    @Override
+    public void send(int port, Message message) {
+        PeerSender sender = senders.get(port);
+        if (sender == null) {
+            LOG.log(Level.SEVERE, () -> "No " + IValueManager.class.getSimpleName() + " linked on port " + port);
+            return;
+        }
+        sender.queue.add(message);
+    }
+
+    @Override
+    public void broadcast(Message message) {
+        for (PeerSender sender : senders.values()) {
+            sender.queue.add(message);
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        for (PeerSender sender : senders.values()) {
+            sender.interrupt();
+        }
+        senders.clear();
+    }
+
+    /**
+     * The thread delivering the queued {@link Message}s to one remote {@link IValueManager}
+     */
+    private static class PeerSender extends Thread {
+
+        /**
+         * Outbound queue of the peer
+         */
+        private final BlockingQueue<Message> queue = new LinkedBlockingQueue<>();
+
+        /**
+         * The port of the peer, used for logging
+         */
+        private final int port;
+
+        /**
+         * Called with the port of the peer if it cannot be delivered its messages anymore
+         */
+        private final IntConsumer onFailure;
+
+        /**
+         * The stubs of the peers
+         */
+        private final StubCache stubs;
+
+        /**
+         * The durations of the calls to the peer
+         */
+        private final LatencyHistogram callLatency;
+
+        /**
+         * true once a message has been delivered to the peer
+         */
+        private boolean reached;
+
+        /**
+         * Constructor
+         * @param port the port of the peer
+         * @param stubs the stubs of the peers
+         * @param callLatency records the durations of the calls to the peer
+         * @param onFailure called with the port of the peer if it cannot be delivered its messages anymore
+         */
+        PeerSender(int port, StubCache stubs, LatencyHistogram callLatency, IntConsumer onFailure) {
+            super("sender-" + port);
+            this.port = port;
+            this.stubs = stubs;
+            this.callLatency = callLatency;
+            this.onFailure = onFailure;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (!isInterrupted()) {
+                Message message;
+                try {
+                    message = queue.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (!deliver(message)) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Delivers the message, trying again until the deadline if the peer was reached before, until the peer is
+         * started otherwise
+         * @param message the {@link Message} to deliver
+         * @return false if the peer failed or the sender was stopped
+         */
+        private boolean deliver(Message message) {
+            long deadline = 0;
+            boolean waiting = false;
+            while (true) {
+                IValueManager stub = null;
+                try {
+                    stub = stubs.get(port);
+                    long start = System.nanoTime();
+                    stub.acceptMessage(message);
+                    callLatency.record(System.nanoTime() - start);
+                    reached = true;
+                    return true;
+                } catch (RemoteException | NotBoundException e) {
+                    if (stub != null) {
+                        stubs.invalidate(port, stub);
+                    }
+                    long now = System.currentTimeMillis();
+                    if (!reached) {
+                        if (!waiting) {
+                            waiting = true;
+                            LOG.log(Level.INFO, () -> "Waiting for " + port + " to be started");
+                        }
+                    } else if (deadline == 0) {
+                        deadline = now + Constants.SEND_DEADLINE_MILLIS;
+                        LOG.log(Level.WARNING, () -> "Unable to deliver " + message.getMessageType().name()
+                                + " to " + port + ", retrying");
+                    } else if (now >= deadline) {
+                        LOG.log(Level.SEVERE, e, () -> "Unable to deliver " + message.getMessageType().name()
+                                + " to " + port + ", giving up");
+                        onFailure.accept(port);
+                        return false;
+                    }
+                }
+                try {
+                    Thread.sleep(Constants.SEND_RETRY_MILLIS);
+                } catch (InterruptedException e) {
+                    return false;
+                }
+            }
+        }
+    }
+}
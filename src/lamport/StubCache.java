@@ -0,0 +1,55 @@
+package lamport;
+
+import utils.Constants;
+
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class resolves the stubs of the remote {@link IValueManager}s of the system and keeps them.
+ *
+ * DESCRIPTION:
+ * - The stub of a peer is looked up in the registry of the peer the first time it is needed, then reused by all the
+ * calls.
+ * - A stub which could not be called is dropped, so that the next call looks the peer up again: it may have been
+ * restarted.
+ * - Used from any thread.
+ *
+ * Authors: Samuel Mayor, Alexandra Korukova
+ */
+class StubCache {
+
+    /**
+     * The stubs of the peers. The keys are the ports of their registries
+     */
+    private final Map<Integer, IValueManager> stubs = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the stub of the peer, looking it up if it is not known yet
+     * @param port the port of the registry of the peer
+     * @return the stub
+     * @throws RemoteException if the registry of the peer cannot be reached
+     * @throws NotBoundException if the peer is not bound in its registry
+     */
+    IValueManager get(int port) throws RemoteException, NotBoundException {
+        IValueManager stub = stubs.get(port);
+        if (stub == null) {
+            stub = (IValueManager) LocateRegistry.getRegistry(Constants.SERVER_HOST, port)
+                    .lookup(Constants.REMOTE_OBJ_NAME);
+            stubs.put(port, stub);
+        }
+        return stub;
+    }
+
+    /**
+     * Drops the stub of the peer if it is still the given one
+     * @param port the port of the registry of the peer
+     * @param stub the stub which could not be called
+     */
+    void invalidate(int port, IValueManager stub) {
+        stubs.remove(port, stub);
+    }
+}
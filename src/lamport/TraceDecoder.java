@@ -0,0 +1,244 @@
+package lamport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * This program prints the timeline of the events recorded by the {@link EventTrace}s of the nodes of a system.
+ *
+ * DESCRIPTION:
+ * - Every received message is matched with its sending, printed after "<-" as the clock and the port of the sender.
+ * A sending which is not in the traces (overwritten in the ring) is reported, and so is a reception whose clock is not
+ * greater than the clock of its sending, which breaks the Lamport clock condition. The clock of a reception is
+ * recorded once updated with the timestamp of the message, so only the clock of the sender shows it; the requests
+ * sent again with their old timestamp (to a joining node, to a new member of a Maekawa quorum) may show it too.
+ * - The events of all the traces are merged: the events of a node stay in the order they were recorded, a received
+ * message always comes after its sending, and the next event is the one with the smallest logical clock (then port)
+ * among the others. The timeline thus respects the happens-before relation.
+ * - The elapsed times are given from the first event of the timeline: they can only be compared between the nodes
+ * of the same machine.
+ *
+ * Usage: java lamport.TraceDecoder DIRECTORY|FILE...
+ * - DIRECTORY: every node-PORT.trace file of the directory
+ *
+ * Authors: Samuel Mayor, Alexandra Korukova
+ */
+public class TraceDecoder {
+
+    private static final MessageType[] MESSAGE_TYPES = MessageType.values();
+
+    public static void main(String... args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: java " + TraceDecoder.class.getName() + " DIRECTORY|FILE...");
+            System.exit(1);
+        }
+        Map<Integer, List<Event>> nodes = new TreeMap<>();
+        for (String arg : args) {
+            Path path = Paths.get(arg);
+            if (Files.isDirectory(path)) {
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(path, "*.trace")) {
+                    for (Path file : files) {
+                        read(file, nodes);
+                    }
+                }
+            } else {
+                read(path, nodes);
+            }
+        }
+        long origin = Long.MAX_VALUE;
+        Map<String, Event> sendings = new HashMap<>();
+        for (List<Event> events : nodes.values()) {
+            for (Event event : events) {
+                origin = Math.min(origin, event.nanos);
+                if (event.event == EventTrace.SEND || event.event == EventTrace.BROADCAST) {
+                    sendings.put(sendingKey(event.port, event.peer, event), event);
+                }
+            }
+        }
+        for (List<Event> events : nodes.values()) {
+            for (Event event : events) {
+                if (event.event == EventTrace.RECEIVE) {
+                    event.sending = sendings.get(sendingKey(event.peer, event.port, event));
+                    if (event.sending == null) {
+                        event.sending = sendings.get(sendingKey(event.peer, 0, event));
+                    }
+                }
+            }
+        }
+        for (Event event : merge(nodes.values())) {
+            System.out.println(format(event, origin));
+        }
+    }
+
+    /**
+     * Merges the events of the nodes consistently with the happens-before relation
+     * @param nodes the events of every node, in the order they were recorded
+     * @return the timeline
+     */
+    private static List<Event> merge(Collection<List<Event>> nodes) {
+        List<Iterator<Event>> iterators = new ArrayList<>();
+        List<Event> heads = new ArrayList<>();
+        for (List<Event> events : nodes) {
+            if (!events.isEmpty()) {
+                Iterator<Event> iterator = events.iterator();
+                iterators.add(iterator);
+                heads.add(iterator.next());
+            }
+        }
+        List<Event> timeline = new ArrayList<>();
+        while (!heads.isEmpty()) {
+            int next = -1;
+            for (int i = 0; i < heads.size(); i++) {
+                Event head = heads.get(i);
+                boolean ready = head.sending == null || head.sending.merged;
+                if (ready && (next < 0 || head.localTime < heads.get(next).localTime)) {
+                    next = i;
+                }
+            }
+            if (next < 0) {
+                // not possible with complete traces, take the oldest event
+                next = 0;
+            }
+            Event event = heads.get(next);
+            event.merged = true;
+            timeline.add(event);
+            if (iterators.get(next).hasNext()) {
+                heads.set(next, iterators.get(next).next());
+            } else {
+                heads.remove(next);
+                iterators.remove(next);
+            }
+        }
+        return timeline;
+    }
+
+    /**
+     * Reads the events of a trace
+     * @param file the trace
+     * @param nodes gets the events of the trace, oldest first, by port of the node
+     * @throws IOException if the file cannot be read or is not a trace
+     */
+    private static void read(Path file, Map<Integer, List<Event>> nodes) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer trace = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (trace.getInt(0) != EventTrace.MAGIC) {
+                throw new IOException("Not a trace: " + file);
+            }
+            int port = trace.getInt(Integer.BYTES);
+            int capacity = trace.getInt(2 * Integer.BYTES);
+            long count = trace.getLong(EventTrace.COUNT_OFFSET);
+            List<Event> events = new ArrayList<>();
+            nodes.put(port, events);
+            for (long sequence = Math.max(0, count - capacity); sequence < count; sequence++) {
+                int offset = EventTrace.HEADER_SIZE + (int) (sequence % capacity) * EventTrace.RECORD_SIZE;
+                Event event = new Event();
+                event.port = port;
+                event.nanos = trace.getLong(offset);
+                event.localTime = trace.getInt(offset + 8);
+                event.event = trace.get(offset + 12);
+                byte type = trace.get(offset + 13);
+                event.type = type < 0 ? null : MESSAGE_TYPES[type];
+                event.key = trace.getInt(offset + 16);
+                event.peer = trace.getInt(offset + 20);
+                event.timestamp = trace.getInt(offset + 24);
+                event.value = trace.getInt(offset + 28);
+                events.add(event);
+            }
+        }
+    }
+
+    /**
+     * @param event an event
+     * @param origin the time of the first event of the timeline, in nanoseconds
+     * @return the line of the event in the timeline
+     */
+    private static String format(Event event, long origin) {
+        StringBuilder line = new StringBuilder(String.format("[%d] %d +%.3fms ", event.localTime, event.port,
+                (event.nanos - origin) / 1e6));
+        switch (event.event) {
+            case EventTrace.SEND:
+                line.append("SEND ").append(message(event)).append(" to ").append(event.peer);
+                break;
+            case EventTrace.BROADCAST:
+                line.append("BROADCAST ").append(message(event));
+                break;
+            case EventTrace.RECEIVE:
+                line.append("RECEIVE ").append(message(event)).append(" from ").append(event.peer);
+                if (event.sending == null) {
+                    line.append(" <- sending not traced");
+                } else {
+                    line.append(" <- [").append(event.sending.localTime).append("] ").append(event.sending.port);
+                    if (event.localTime <= event.sending.localTime) {
+                        line.append(" CLOCK CONDITION BROKEN");
+                    }
+                }
+                break;
+            case EventTrace.ENTER:
+                line.append("ENTER key ").append(event.key).append(" request ").append(event.timestamp)
+                        .append(" value ").append(event.value);
+                break;
+            case EventTrace.JOIN:
+                line.append("JOIN ").append(event.peer);
+                break;
+            case EventTrace.LEAVE:
+                line.append("LEAVE ").append(event.peer);
+                break;
+            case EventTrace.FAIL:
+                line.append("FAIL ").append(event.peer);
+                break;
+            default:
+                line.append("UNKNOWN ").append(event.event);
+        }
+        return line.toString();
+    }
+
+    /**
+     * @param event a message sent or received
+     * @return the description of the message
+     */
+    private static String message(Event event) {
+        return event.type + " key " + event.key + " ts " + event.timestamp;
+    }
+
+    /**
+     * @param emitter the port of the sender of the message
+     * @param receiver the port of the receiver of the message, 0 for a broadcast
+     * @param event the sending or the reception of the message
+     * @return the key identifying the sending of the message
+     */
+    private static String sendingKey(int emitter, int receiver, Event event) {
+        return emitter + ">" + receiver + " " + event.type + " " + event.key + " " + event.timestamp;
+    }
+
+    /**
+     * An event read from a trace
+     */
+    private static class Event {
+        private int port;
+        private long nanos;
+        private int localTime;
+        private byte event;
+        private MessageType type;
+        private int key;
+        private int peer;
+        private int timestamp;
+        private int value;
+        // the sending of a received message, null if it is not traced
+        private Event sending;
+        // true once the event is in the timeline
+        private boolean merged;
+    }
+}
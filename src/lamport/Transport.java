@@ -0,0 +1,54 @@
+package lamport;
+
+/**
+ * The layer delivering the {@link Message}s of a {@link ValueManager} to the other {@link IValueManager}s of the
+ * system.
+ *
+ * DESCRIPTION:
+ * - Sending a message never blocks the caller.
+ * - The messages sent to a given peer are delivered in the order they were sent (FIFO channel), which is required
+ * by the mutual exclusion algorithms.
+ * - The links are established lazily, in parallel, by the first message sent to each peer. The messages sent to a
+ * peer which was never reached wait until it is: it may not be started yet.
+ * - The peers are identified by the ports of their RMI registries, whatever the transport is.
+ * - A peer reached once which cannot be delivered its messages until {@link utils.Constants#SEND_DEADLINE_MILLIS} is reported to
+ * the failure handler given at creation, and its messages are dropped.
+ * - The implementation is selected at startup (see {@link Options}), all the nodes of the system must use the same
+ * one.
+ *
+ * Authors: Samuel Mayor, Alexandra Korukova
+ */
+interface Transport {
+
+    /**
+     * Links the {@link IValueManager} whose registry listens on the given port, if it is not linked yet.
+     * Never blocks: the peer is reached by the first message sent to it
+     * @param port the port of the peer
+     */
+    void connect(int port);
+
+    /**
+     * Closes the link with the {@link IValueManager} whose registry listens on the given port, if any.
+     * The messages which are not sent yet are dropped
+     * @param port the port of the peer
+     */
+    void disconnect(int port);
+
+    /**
+     * Sends the {@link Message} to the {@link IValueManager} listening on the given port
+     * @param port the port of the receiver
+     * @param message the {@link Message} to send
+     */
+    void send(int port, Message message);
+
+    /**
+     * Sends the {@link Message} to every linked {@link IValueManager} of the system
+     * @param message the {@link Message} to send
+     */
+    void broadcast(Message message);
+
+    /**
+     * Closes the links with the peers. The messages which are not sent yet are dropped.
+     */
+    void shutdown();
+}
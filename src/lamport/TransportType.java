@@ -0,0 +1,37 @@
+package lamport;
+
+import java.rmi.RemoteException;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+/**
+ * This enumeration represents the {@link Transport}s a {@link ValueManager} can use to send its messages
+ *
+ * Authors: Samuel Mayor, Alexandra Korukova
+ */
+public enum TransportType {
+    RMI,
+    NIO;
+
+    /**
+     * Creates the transport
+     * @param port the port of the registry of the current {@link ValueManager}
+     * @param stubs the stubs of the peers. Unused by {@link #NIO}
+     * @param metrics records the latencies of the remote calls. Unused by {@link #NIO}
+     * @param receiver handles the {@link Message}s received by the transport itself. Unused by {@link #RMI}, whose
+     * messages arrive through {@link IValueManager#acceptMessage(Message)}
+     * @param onFailure called with the port of a peer which cannot be delivered its messages anymore
+     * @return the new {@link Transport} instance
+     * @throws RemoteException if the transport cannot be started
+     */
+    Transport create(int port, StubCache stubs, ValueManagerMetrics metrics, Consumer<Message> receiver,
+                     IntConsumer onFailure) throws RemoteException {
+        switch (this) {
+            case NIO:
+                return new NioTransport(port, receiver, onFailure);
+            case RMI:
+            default:
+                return new RmiTransport(stubs, metrics, onFailure);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package lamport;
+
+import utils.Constants;
+
+import java.rmi.RemoteException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class pushes the values committed in a {@link ValueManager} to the remote {@link IValueListener}s of its
+ * clients.
+ *
+ * DESCRIPTION:
+ * - Every listener has its own notifier thread, so a slow or dead client only delays its own notifications and never
+ * the event loop, which only hands the committed values over.
+ * - The values waiting to be pushed are kept by key: a value committed before the previous one of its key was pushed
+ * replaces it, so a slow listener gets the last values without falling behind.
+ * - A listener which cannot be called back is retried every {@link Constants#SEND_RETRY_MILLIS}, so that a transient
+ * failure loses nothing. It is removed once it cannot be called back for {@link Constants#SEND_DEADLINE_MILLIS}: its
+ * client finds it out when it registers it again (see {@link IValueManager#addValueListener(IValueListener)}).
+ * - {@link #committed(int, ValueSnapshot)} is called from the event loop, the listeners are added and removed from
+ * the RMI threads.
+ *
+ * Authors: Samuel Mayor, Alexandra Korukova
+ */
+class ValueListeners {
+
+    private static final Logger LOG = Logger.getLogger(ValueListeners.class.getName());
+
+    /**
+     * The notifiers of the registered listeners
+     */
+    private final Map<IValueListener, Notifier> notifiers = new ConcurrentHashMap<>();
+
+    /**
+     * Registers a listener, unless it is registered
+     * @param listener the remote listener
+     * @return true if the listener was not registered
+     */
+    boolean add(IValueListener listener) {
+        boolean[] added = new boolean[1];
+        notifiers.computeIfAbsent(listener, l -> {
+            Notifier notifier = new Notifier(l);
+            notifier.start();
+            added[0] = true;
+            return notifier;
+        });
+        return added[0];
+    }
+
+    /**
+     * Unregisters a listener, if it is registered
+     * @param listener the remote listener
+     */
+    void remove(IValueListener listener) {
+        Notifier notifier = notifiers.remove(listener);
+        if (notifier != null) {
+            notifier.interrupt();
+        }
+    }
+
+    /**
+     * Hands a committed value to the notifiers
+     * @param key the key of the value
+     * @param snapshot the committed value
+     */
+    void committed(int key, ValueSnapshot snapshot) {
+        if (notifiers.isEmpty()) {
+            return;
+        }
+        for (Notifier notifier : notifiers.values()) {
+            notifier.push(key, snapshot);
+        }
+    }
+
+    /**
+     * Stops all the notifiers
+     */
+    void shutdown() {
+        for (Notifier notifier : notifiers.values()) {
+            notifier.interrupt();
+        }
+        notifiers.clear();
+    }
+
+    /**
+     * The thread calling back one listener
+     */
+    private class Notifier extends Thread {
+
+        private final IValueListener listener;
+
+        /**
+         * The values waiting to be pushed, by key in the order they were committed. Guarded by the notifier
+         */
+        private Map<Integer, ValueSnapshot> pending = new LinkedHashMap<>();
+
+        /**
+         * Constructor
+         * @param listener the remote listener
+         */
+        Notifier(IValueListener listener) {
+            super("value-listener");
+            this.listener = listener;
+            setDaemon(true);
+        }
+
+        /**
+         * Queues a committed value, replacing the older value of the key not pushed yet
+         * @param key the key of the value
+         * @param snapshot the committed value
+         */
+        synchronized void push(int key, ValueSnapshot snapshot) {
+            pending.put(key, snapshot);
+            notify();
+        }
+
+        @Override
+        public void run() {
+            while (!isInterrupted()) {
+                Map<Integer, ValueSnapshot> values;
+                synchronized (this) {
+                    while (pending.isEmpty()) {
+                        try {
+                            wait();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                    values = pending;
+                    pending = new LinkedHashMap<>();
+                }
+                if (!pushAll(values)) {
+                    notifiers.remove(listener, this);
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Pushes the values to the listener, retrying a failed call until the listener is silent for
+         * {@link Constants#SEND_DEADLINE_MILLIS}
+         * @param values the values to push
+         * @return false if the listener could not be called back in time or the notifier was stopped
+         */
+        private boolean pushAll(Map<Integer, ValueSnapshot> values) {
+            // the time the listener is given up, 0 while the calls succeed
+            long deadline = 0;
+            for (Map.Entry<Integer, ValueSnapshot> value : values.entrySet()) {
+                while (true) {
+                    try {
+                        listener.valueCommitted(value.getKey(), value.getValue());
+                        deadline = 0;
+                        break;
+                    } catch (RemoteException e) {
+                        long now = System.currentTimeMillis();
+                        if (deadline == 0) {
+                            deadline = now + Constants.SEND_DEADLINE_MILLIS;
+                        } else if (now >= deadline) {
+                            LOG.log(Level.WARNING, "Unable to call a value listener back, removing it", e);
+                            return false;
+                        }
+                    }
+                    try {
+                        Thread.sleep(Constants.SEND_RETRY_MILLIS);
+                    } catch (InterruptedException e) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+    }
+}
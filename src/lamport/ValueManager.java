@@ -2,15 +2,27 @@ package lamport;
 
 import utils.Constants;
 
-import java.net.MalformedURLException;
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.rmi.AlreadyBoundException;
-import java.rmi.Naming;
+import java.rmi.NoSuchObjectException;
 import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.rmi.server.UnicastRemoteObject;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -37,6 +49,57 @@ import java.util.logging.Logger;
  * - When the value is modified by the {@link ValueManager}, the critical section is liberated and the the liberation
  * messages are diffused to other nodes of the system. Once this message is received by a node, it also checks if it
  * it's turn to get the critical section.
+ * The algorithm getting the critical section is a {@link MutualExclusion} selected at startup: the Lamport algorithm
+ * described above ({@link LamportMutex}), the Ricart-Agrawala algorithm ({@link RicartAgrawalaMutex}) or, for the
+ * large systems, the Maekawa algorithm asking a quorum of about 2 sqrt(N) nodes only ({@link MaekawaMutex}).
+ * With the "lease" option (see {@link Options}), a node whose critical section was not contended keeps it for a
+ * while: as long as no other node asks for it, its next writes are committed with the liberation messages alone.
+ *
+ * KEYS:
+ * The {@link ValueManager} stores one value per int key. Every key is a {@link Shard} with its own instance of the
+ * algorithm (request queue, acknowledgements), so the writes of different keys get their critical sections
+ * concurrently. The {@link Message}s carry the key they are about. The shard of a key is created the first time the
+ * key is written, read in order or mentioned by a message.
+ *
+ * MEMBERSHIP:
+ * The members of the system are not fixed. The ports given at startup are the initial members, which the
+ * {@link ValueManager} links itself with lazily: a member may be started later. With the "join" option (see
+ * {@link Options}), a starting {@link ValueManager} joins a running system: it calls
+ * {@link #memberJoined(int)} on the given member and on every member it learns from the answers, all in parallel.
+ * Every member adds it to its view and the new node starts from the newest values and from a logical clock greater
+ * than the clocks of all the members, so that its requests are newer than the pending ones. A
+ * {@link ValueManager} leaves the system with {@link #leave()}: once its writes are committed, it calls
+ * {@link #memberLeft(int)} on every member and stops. The algorithm of every key waits for the acknowledgements of
+ * the current members only. The members join one at a time: a member answers one join until the joining node ends
+ * it with {@link #joinEnded(int)} (or leaves, or {@link Constants#JOIN_TIMEOUT_MILLIS} pass), and refuses the other
+ * joins meanwhile. A node refused by a member leaves the members which accepted it and fails to start.
+ *
+ * FAILURES:
+ * Every {@link ValueManager} sends a heartbeat to its peers periodically (see the "heartbeat" option of
+ * {@link Options}), and a {@link FailureDetector} declares failed the peers which stay silent too long. A peer is
+ * also declared failed when the {@link Transport} cannot deliver its messages in time. A failed peer is removed from
+ * the system for good: the algorithm of every key stops waiting for its acknowledgements and forgets its requests,
+ * so that the other nodes keep getting the critical section. A restarted node joins the system again.
+ *
+ * CLIENTS:
+ * The clients may register an {@link IValueListener} with {@link #addValueListener(IValueListener)}: every value
+ * committed, local or remote, is pushed to it by the {@link ValueListeners}, so that the clients cache the values
+ * and read them without a remote call. Only with the Lamport algorithm: its liberations bring every remote commit to
+ * every node, whereas with Ricart-Agrawala and Maekawa a node learns the remote commits when it requests the
+ * critical section only, so an idle node would push nothing and its clients would cache stale values forever.
+ *
+ * RECOVERY:
+ * With the "wal" option (see {@link Options}), the committed values and the logical clock are written to a
+ * {@link WriteAheadLog}. A restarted {@link ValueManager} recovers the last value of every key and a clock greater
+ * than every timestamp it used before. Its pending requests are not recovered: the values which were not committed
+ * yet are lost.
+ *
+ * METRICS:
+ * Every {@link ValueManager} counts its messages and the latencies of its critical sections and of its remote calls
+ * in a {@link ValueManagerMetrics}, registered as a JMX MBean (see {@link ValueManagerMetricsMXBean}).
+ * With the "trace" option (see {@link Options}), its messages, critical sections and changes of the members are
+ * recorded in an {@link EventTrace}, whose timeline is printed by the {@link TraceDecoder}. Nothing is logged per
+ * message.
  *
  * Authors: Samuel Mayor, Alexandra Korukova
  */
@@ -44,11 +107,6 @@ public class ValueManager extends UnicastRemoteObject implements IValueManager {
 
     private static final Logger LOG = Logger.getLogger(ValueManager.class.getName());
 
-    /**
-     * The value stored by {@link ValueManager}
-     */
-    private int value;
-
     /**
      * Local timestamp which is updated with every incoming/emitted {@link Message}
      */
@@ -65,44 +123,152 @@ public class ValueManager extends UnicastRemoteObject implements IValueManager {
     private int nbNodes;
 
     /**
-     * Ports of all other {@link ValueManager}s of the system
+     * Ports of all other {@link ValueManager}s of the system: the current view of the members.
+     * Replaced by the event loop, volatile so that it can be read from any thread
+     */
+    private volatile int[] ports;
+
+    /**
+     * The stubs of the other {@link ValueManager}s, shared with the {@link Transport}
+     */
+    private final StubCache stubs = new StubCache();
+
+    /**
+     * Delivers the outgoing {@link Message}s to the other {@link IValueManager}s of the system asynchronously
+     */
+    private Transport transport;
+
+    /**
+     * The single thread applying the incoming {@link Message}s and the client's requests.
+     * All the fields below are only accessed from this thread
+     */
+    private EventLoop eventLoop;
+
+    /**
+     * The keys stored by the {@link ValueManager}. Written by the event loop only, read from any thread
+     */
+    private final IntObjectMap<Shard> shards = new IntObjectMap<>();
+
+    /**
+     * The requests emitted by the current {@link ValueManager} which did not get the critical section yet, of all
+     * the keys. The keys of the map are the timestamps of the requests
+     */
+    private Map<Integer, LocalRequest> localRequests;
+
+    /**
+     * The settings of the {@link ValueManager}
      */
-    private int[] ports;
+    private Options options;
 
     /**
-     * This map associates the port with the {@link IValueManager} which is listening on this port
+     * Number of the values set by the client so far: the id of the last write.
+     * Written by the RMI threads, under the lock of {@link #writeLock}
      */
-    private Map<Integer, IValueManager> portManager;
+    private long valuesAdded;
 
     /**
-     * This map represents a request queue for the Lamport algorithm
-     * The keys of the map are the port of the {@link IValueManager} holding the request
-     * The values are the {@link Message}s containing the request
+     * The id of the newest write such that it and all the older writes are committed. The writes of a key are
+     * committed in the order they were set, the writes of different keys in any order.
+     * Written by the event loop, volatile so that it can be read from any thread
      */
-    private Map<Integer, Message> pendingRequests;
+    private volatile long valuesCommitted;
 
     /**
-     * Current number of acknowledgements received by the {@link ValueManager}
+     * The ids and the commit timestamps of the last committed writes, indexed by their id modulo
+     * {@link Constants#COMMIT_HISTORY}. Written by the event loop, the timestamp before the id.
+     * A write is only accepted once the write sharing its slot is committed, along with all the older ones
+     * (see {@link #writeSlots}), so the slot of a write in flight is never reused
      */
-    private int nbAcks;
+    private final AtomicLongArray commitIds = new AtomicLongArray(Constants.COMMIT_HISTORY);
+    private final int[] commitTimestamps = new int[Constants.COMMIT_HISTORY];
 
     /**
-     * This boolean is true if the current node has requested the access to the critical section
+     * The free slots of the commit history: {@link Constants#COMMIT_HISTORY} minus the writes set after
+     * {@link #valuesCommitted}. Taken by {@link #set(int, int)} before the id of the write is chosen, given back by the
+     * event loop as {@link #valuesCommitted} moves on, so that the id of a new write is never more than
+     * {@link Constants#COMMIT_HISTORY} ahead of it. Fair, so that the writers get the slots in turn
      */
-    private boolean criticalSectionRequested;
+    private final Semaphore writeSlots = new Semaphore(Constants.COMMIT_HISTORY, true);
 
     /**
-     * In case if the critical section is requested by the {@link ValueManager}, this integer stores the value
-     * which the {@link ValueManager} desires to set
+     * Makes the choice of the id of a write and its submission to the event loop atomic, so that the writes reach the
+     * event loop in the order of their ids. Never held while waiting
      */
-    private int newValue;
+    private final Object writeLock = new Object();
+
+    /**
+     * true once the {@link ValueManager} is leaving the system: the new writes are refused.
+     * Guarded by {@link #writeLock}
+     */
+    private boolean leaving;
+
+    /**
+     * The {@link ReadConsistency#SESSION} reads waiting for all the writes up to some id to be committed, the one
+     * waiting for the oldest write first
+     */
+    private PriorityQueue<CommitWaiter> sessionReads;
+
+    /**
+     * The {@link #awaitCommit(long, long)} calls waiting for the commit of a write. The keys are the ids of the writes
+     */
+    private Map<Long, List<Runnable>> commitWaiters;
+
+    /**
+     * The metrics of the {@link ValueManager}, exposed through JMX
+     */
+    private ValueManagerMetrics metrics;
+
+    /**
+     * Number of the reads served and their total latency in nanoseconds, for every {@link ReadConsistency}.
+     * Updated from the RMI threads
+     */
+    private final LongAdder[] readCounts = ValueManagerMetrics.newAdders(ReadConsistency.values().length);
+    private final LongAdder[] readNanos = ValueManagerMetrics.newAdders(ReadConsistency.values().length);
+
+    /**
+     * The log of the committed values and of the clock, null if the state is not logged
+     */
+    private WriteAheadLog wal;
+
+    /**
+     * Records the events of the {@link ValueManager}, null if they are not recorded
+     */
+    private EventTrace trace;
+
+    /**
+     * Detects the failed peers from their heartbeats, null if the failures are not detected
+     */
+    private FailureDetector failureDetector;
+
+    /**
+     * The ports of the peers declared failed or which left the system
+     */
+    private Set<Integer> removedPorts;
+
+    /**
+     * The port of the node whose join is in progress with this member, 0 if none, and the time (see
+     * {@link System#nanoTime()}) the join is given up if the node does not end it. Used by the event loop only
+     */
+    private int joiningPort;
+    private long joinExpiry;
+
+    /**
+     * Notified of every value committed, null if there is none
+     */
+    private volatile CommitListener commitListener;
+
+    /**
+     * The remote listeners of the clients, pushed every value committed
+     */
+    private final ValueListeners valueListeners = new ValueListeners();
 
     /**
      * @param args
      *      * args[0] - the port on which the registry accepts the requests
      *      * args[1] - number of the nodes of the system - N
-     *      * args[2]..args[N-1] - ports of the other {@link ValueManager}s of the system
-     * @throws RemoteException
+     *      * args[2]..args[N] - ports of the other {@link ValueManager}s of the system
+     *      * args[N+1].. - optional "name=value" settings, see {@link Options}
+     * @throws RemoteException if the system cannot be joined
      * @throws AlreadyBoundException
      */
     public static void main(String ...args) throws RemoteException, AlreadyBoundException {
@@ -114,11 +280,23 @@ public class ValueManager extends UnicastRemoteObject implements IValueManager {
         for(int i  = 0; i < nbNodes-1; i++) {
             ports[i] = Integer.parseInt(args[i+2]);
         }
+        Options options = Options.parse(args, nbNodes+1);
+
+        // bound the remote calls, so that a dead peer does not block a sender forever
+        setDefaultProperty("sun.rmi.transport.tcp.responseTimeout", Constants.CALL_TIMEOUT_MILLIS);
+        setDefaultProperty("sun.rmi.transport.proxy.connectTimeout", Constants.CALL_TIMEOUT_MILLIS);
 
         // create and exports a Registry instance on the localhost that accepts requests
         Registry registry = LocateRegistry.createRegistry(port);
         // bind the remote reference to the name in the registry
-        registry.bind(Constants.REMOTE_OBJ_NAME, new ValueManager(port, nbNodes, ports));
+        ValueManager valueManager = new ValueManager(port, nbNodes, ports, options);
+        registry.bind(Constants.REMOTE_OBJ_NAME, valueManager);
+        // write the snapshot of the state when the program is stopped, so that the restart is fast
+        Runtime.getRuntime().addShutdownHook(new Thread(valueManager::closeLog));
+        valueManager.lookup();
+        if (options.getJoinPort() != 0) {
+            valueManager.joinSystem(options.getJoinPort());
+        }
         LOG.log(Level.INFO, () -> Constants.REMOTE_OBJ_NAME + " bound");
         LOG.log(Level.INFO, () -> "Listening on incoming remote invocations on port: " + port);
 
@@ -132,68 +310,569 @@ public class ValueManager extends UnicastRemoteObject implements IValueManager {
      * @throws RemoteException
      */
     public ValueManager(int port, int nbNodes, int[] ports) throws RemoteException {
+        this(port, nbNodes, ports, new Options());
+    }
+
+    /**
+     * Constructor
+     * @param port the port the {@link ValueManager} is listening on
+     * @param nbNodes total number of the nodes ({@link client.Site} - {@link ValueManager} couples) of the system: N
+     * @param ports the array containing N-1 ports of other {@link ValueManager}s of the system
+     * @param options the settings of the {@link ValueManager}
+     * @throws RemoteException
+     */
+    public ValueManager(int port, int nbNodes, int[] ports, Options options) throws RemoteException {
         super();
         localTime = 0;
         this.port = port;
         this.nbNodes = nbNodes;
         this.ports = ports;
-        pendingRequests = new TreeMap<>();
-        portManager = new HashMap<>();
-        criticalSectionRequested = false;
+        localRequests = new HashMap<>();
+        sessionReads = new PriorityQueue<>();
+        commitWaiters = new HashMap<>();
+        removedPorts = new HashSet<>();
+        this.options = options;
+        if (options.getWalDirectory() != null) {
+            try {
+                WriteAheadLog log = new WriteAheadLog(Paths.get(options.getWalDirectory()), port, () -> localTime,
+                        this::forEachValue);
+                // the log is set once the recovery is done, so that the recovered values are not logged again
+                localTime = log.recover((key, value, timestamp, writerPort) ->
+                        shard(key).commit(value, timestamp, writerPort));
+                wal = log;
+            } catch (IOException e) {
+                throw new RemoteException("Unable to recover from the write-ahead log", e);
+            }
+        }
+        if (options.getTraceDirectory() != null) {
+            try {
+                trace = new EventTrace(Paths.get(options.getTraceDirectory()), port);
+            } catch (IOException e) {
+                throw new RemoteException("Unable to create the event trace", e);
+            }
+        }
+        // the messages received as soon as the transport is created are queued until the loop is started
+        eventLoop = new EventLoop("event-loop-" + port);
+        metrics = new ValueManagerMetrics(port, eventLoop, this::gauge);
+        transport = options.getTransport().create(port, stubs, metrics, this::receive,
+                failed -> eventLoop.execute(() -> onPeerFailed(failed)));
+        long heartbeatMillis = options.getHeartbeatMillis();
+        if (heartbeatMillis > 0) {
+            failureDetector = new FailureDetector(heartbeatMillis, this::onPeerFailed);
+        }
+        eventLoop.start();
+        metrics.register();
+        if (heartbeatMillis > 0) {
+            eventLoop.scheduleRepeated(this::heartbeat, heartbeatMillis);
+        }
     }
 
     /**
      * This method is used to link the current {@link ValueManager} with the other fot the further execution of the
-     * Lamport mutual exclusion algorithm
-     * @throws RemoteException
-     * @throws NotBoundException
-     * @throws MalformedURLException
+     * Lamport mutual exclusion algorithm. Never blocks: the other nodes are reached by the first messages sent to them
      */
-    public void lookup() throws RemoteException, NotBoundException, MalformedURLException {
+    public void lookup() {
         // reference the other ValueManagers of the system
         for (int p : ports) {
-            String toLookup = "rmi://" + Constants.SERVER_HOST
-                    + ":" + p + "/" + Constants.REMOTE_OBJ_NAME;
-            Registry registry = LocateRegistry.getRegistry(Constants.SERVER_HOST);
-            IValueManager manager = (IValueManager) Naming.lookup(toLookup);
-            portManager.put(p, manager);
-            LOG.log(Level.INFO, () -> Constants.REMOTE_OBJ_NAME + " is linked with other nodes of the system");
+            transport.connect(p);
+        }
+        LOG.log(Level.INFO, () -> Constants.REMOTE_OBJ_NAME + " is linked with other nodes of the system");
+    }
+
+    /**
+     * Joins a running system: tells every member about the current {@link ValueManager}, in parallel, and adds the
+     * members it learns from their answers, until all of them are known. Must be called before the first write
+     * @param seed the port of a member of the system
+     * @throws RemoteException if a member cannot be joined
+     */
+    void joinSystem(int seed) throws RemoteException {
+        Set<Integer> contacted = new HashSet<>();
+        List<Integer> toContact = Collections.singletonList(seed);
+        List<MembershipView> views = new ArrayList<>();
+        ExecutorService callers = Executors.newCachedThreadPool();
+        try {
+            while (!toContact.isEmpty()) {
+                List<Future<MembershipView>> answers = new ArrayList<>();
+                for (int member : toContact) {
+                    contacted.add(member);
+                    // the member answers the first messages of the current node through this link
+                    transport.connect(member);
+                    answers.add(callers.submit(() -> stubs.get(member).memberJoined(port)));
+                }
+                List<Integer> learnt = new ArrayList<>();
+                for (Future<MembershipView> answer : answers) {
+                    MembershipView view = answer.get();
+                    views.add(view);
+                    for (int member : view.getMembers()) {
+                        if (member != port && !contacted.contains(member) && !learnt.contains(member)) {
+                            learnt.add(member);
+                        }
+                    }
+                }
+                toContact = learnt;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abortJoin(contacted);
+            throw new RemoteException("Joining the system interrupted");
+        } catch (ExecutionException e) {
+            abortJoin(contacted);
+            throw new RemoteException("Unable to join the system", e.getCause());
+        } finally {
+            callers.shutdown();
+        }
+        CompletableFuture<Void> joined = new CompletableFuture<>();
+        eventLoop.execute(() -> {
+            for (MembershipView view : views) {
+                localTime = Math.max(localTime, view.getLocalTime());
+                for (int i = 0; i < view.getKeys().length; i++) {
+                    ValueSnapshot value = view.getValues()[i];
+                    shard(view.getKeys()[i]).commit(value.getValue(), value.getTimestamp(), value.getWriterPort());
+                }
+            }
+            reserveClock();
+            for (int member : contacted) {
+                addMember(member);
+            }
+            joined.complete(null);
+        });
+        joined.join();
+        for (int member : contacted) {
+            try {
+                stubs.get(member).joinEnded(port);
+            } catch (RemoteException | NotBoundException e) {
+                // the member ends the join itself after JOIN_TIMEOUT_MILLIS
+                LOG.log(Level.WARNING, () -> "Unable to end the join with " + member + ": " + e.getMessage());
+            }
+        }
+        LOG.log(Level.INFO, () -> "Joined the system of " + nbNodes + " nodes");
+    }
+
+    /**
+     * Leaves the members contacted by a failed join, so that they forget the current {@link ValueManager} and
+     * accept the other joins
+     * @param contacted the ports of the members contacted
+     */
+    private void abortJoin(Set<Integer> contacted) {
+        for (int member : contacted) {
+            try {
+                stubs.get(member).memberLeft(port);
+            } catch (RemoteException | NotBoundException e) {
+                LOG.log(Level.WARNING, () -> "Unable to leave " + member + " after the failed join: "
+                        + e.getMessage());
+            }
         }
     }
 
     /**
      * The implementation of the remote method
+     * @return the ports of the members of the system, the current {@link ValueManager} included, sorted
      * @throws RemoteException
      */
     @Override
-    public void setValue(int value) throws RemoteException {
-        sendRequest(value);
-        this.value = value;
+    public int[] getMembers() throws RemoteException {
+        return members();
     }
 
     /**
-     * This method is called when the user desires to modify the value stored by {@link ValueManager}s.
-     * Pushes the request (as a {@link Message}) to the request queue and sends the request messages to other
-     * {@link ValueManager}s of the system.
-     * @param newValue the value to set
+     * @return the ports of the members of the system, the current {@link ValueManager} included, sorted
+     */
+    private int[] members() {
+        int[] peers = ports;
+        int[] members = Arrays.copyOf(peers, peers.length + 1);
+        members[peers.length] = port;
+        Arrays.sort(members);
+        return members;
+    }
+
+    /**
+     * The implementation of the remote method.
+     * Refuses the new writes, waits for the commit of all the accepted ones, tells every member in parallel, then
+     * stops the {@link ValueManager} once the call has returned. The writes are accepted again if they are not
+     * committed in time
+     * @throws RemoteException if the writes are not committed in time, a member cannot be told or the
+     * {@link ValueManager} is already leaving
+     */
+    @Override
+    public void leave() throws RemoteException {
+        long lastWrite;
+        synchronized (writeLock) {
+            if (leaving) {
+                throw new RemoteException("Already leaving the system");
+            }
+            leaving = true;
+            lastWrite = valuesAdded;
+        }
+        long deadline = System.currentTimeMillis() + Constants.LEAVE_TIMEOUT_MILLIS;
+        while (valuesCommitted < lastWrite) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0 || awaitCommit(valuesCommitted + 1, remaining) < 0) {
+                synchronized (writeLock) {
+                    leaving = false;
+                }
+                throw new RemoteException("The writes are not committed, unable to leave the system");
+            }
+        }
+        int[] members = ports;
+        List<CompletableFuture<Void>> calls = new ArrayList<>();
+        for (int member : members) {
+            calls.add(CompletableFuture.runAsync(() -> {
+                try {
+                    stubs.get(member).memberLeft(port);
+                } catch (RemoteException | NotBoundException e) {
+                    throw new CompletionException(e);
+                }
+            }));
+        }
+        try {
+            CompletableFuture.allOf(calls.toArray(new CompletableFuture<?>[0])).join();
+        } catch (CompletionException e) {
+            throw new RemoteException("Unable to tell the members of the system", e.getCause());
+        }
+        LOG.log(Level.INFO, () -> "Left the system");
+        Thread stopper = new Thread(this::stopWhenIdle, "stop-" + port);
+        stopper.setDaemon(true);
+        stopper.start();
+    }
+
+    /**
+     * The implementation of the remote method.
+     * The node is added by the event loop, which answers with the view of the {@link ValueManager}, unless the join
+     * of another node is in progress
+     * @param joining the port of the joining node
+     * @return the view of the {@link ValueManager}
+     * @throws RemoteException if the join of another node is in progress
+     */
+    @Override
+    public MembershipView memberJoined(int joining) throws RemoteException {
+        CompletableFuture<MembershipView> view = new CompletableFuture<>();
+        eventLoop.execute(() -> {
+            if (joiningPort != 0 && joiningPort != joining && System.nanoTime() - joinExpiry < 0) {
+                view.completeExceptionally(new IllegalStateException("the join of " + joiningPort
+                        + " is in progress"));
+                return;
+            }
+            joiningPort = joining;
+            joinExpiry = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Constants.JOIN_TIMEOUT_MILLIS);
+            addMember(joining);
+            List<Integer> keys = new ArrayList<>();
+            List<ValueSnapshot> values = new ArrayList<>();
+            forEachValue((key, value, timestamp, writerPort) -> {
+                keys.add(key);
+                values.add(new ValueSnapshot(value, timestamp, writerPort));
+            });
+            int[] keyArray = new int[keys.size()];
+            for (int i = 0; i < keyArray.length; i++) {
+                keyArray[i] = keys.get(i);
+            }
+            view.complete(new MembershipView(members(), localTime, keyArray,
+                    values.toArray(new ValueSnapshot[0])));
+        });
+        try {
+            return view.get(Constants.READ_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Join of " + joining + " interrupted", e);
+        } catch (ExecutionException e) {
+            throw new RemoteException("Join of " + joining + " refused: " + e.getCause().getMessage());
+        } catch (TimeoutException e) {
+            throw new RemoteException("Join of " + joining + " failed", e);
+        }
+    }
+
+    /**
+     * The implementation of the remote method.
+     * The event loop accepts the joins of the other nodes again
+     * @param joining the port of the joined node
+     * @throws RemoteException
+     */
+    @Override
+    public void joinEnded(int joining) throws RemoteException {
+        eventLoop.execute(() -> endJoin(joining));
+    }
+
+    /**
+     * Ends the join of a node, if it is in progress. Called by the event loop only
+     * @param joining the port of the node
+     */
+    private void endJoin(int joining) {
+        if (joiningPort == joining) {
+            joiningPort = 0;
+        }
+    }
+
+    /**
+     * The implementation of the remote method.
+     * The node is removed by the event loop
+     * @param leaving the port of the leaving node
+     * @throws RemoteException
+     */
+    @Override
+    public void memberLeft(int leaving) throws RemoteException {
+        eventLoop.execute(() -> {
+            endJoin(leaving);
+            removeMember(leaving, false);
+        });
+    }
+
+    /**
+     * The implementation of the remote method.
+     * The request is handed to the event loop, the method returns without waiting for it to be sent.
+     * The value is stored once the request gets the critical section
+     * @return the id of the write
+     * @throws RemoteException
+     */
+    @Override
+    public long setValue(int value) throws RemoteException {
+        return set(Constants.DEFAULT_KEY, value);
+    }
+
+    /**
+     * The implementation of the remote method.
+     * The request is handed to the event loop, the method returns without waiting for it to be sent.
+     * The value is stored once the request of the key gets the critical section.
+     * A free slot of the commit history is taken first, waiting for the commit of the older writes if
+     * {@link Constants#COMMIT_HISTORY} writes are in flight. The waiting is done before {@link #writeLock} is taken,
+     * so that it never delays the polls and the reads
+     * @param key the key
+     * @param value the value to set
+     * @return the id of the write
+     * @throws RemoteException if the {@link ValueManager} is leaving the system or no slot is freed in time
+     */
+    @Override
+    public long set(int key, int value) throws RemoteException {
+        try {
+            if (!writeSlots.tryAcquire(Constants.READ_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                throw new RemoteException(Constants.COMMIT_HISTORY + " writes in flight, none committed in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Waiting for a write slot interrupted", e);
+        }
+        synchronized (writeLock) {
+            if (leaving) {
+                writeSlots.release();
+                throw new RemoteException("Leaving the system, the write is refused");
+            }
+            long writeId = ++valuesAdded;
+            eventLoop.execute(() -> addValue(shard(key), writeId, value));
+            return writeId;
+        }
+    }
+
+    /**
+     * The implementation of the remote method.
+     * The waiting is registered on the event loop, which completes it with the commit of the write
+     * @param writeId the id of the write returned by {@link #setValue(int)}
+     * @param timeoutMillis maximum time to wait in milliseconds
+     * @return the logical timestamp of the commit of the write, -1 if it is not committed in time
+     * @throws RemoteException if the id is unknown or too old to be remembered
+     */
+    @Override
+    public int awaitCommit(long writeId, long timeoutMillis) throws RemoteException {
+        int timestamp = pollCommit(writeId);
+        if (timestamp >= 0) {
+            return timestamp;
+        }
+        CompletableFuture<Integer> future = new CompletableFuture<>();
+        eventLoop.execute(() -> {
+            if (isCommitted(writeId)) {
+                future.complete(commitTimestamp(writeId));
+            } else {
+                commitWaiters.computeIfAbsent(writeId, id -> new ArrayList<>(1))
+                        .add(() -> future.complete(commitTimestamp(writeId)));
+            }
+        });
+        try {
+            return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            return -1;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Waiting for the commit of write " + writeId + " interrupted", e);
+        } catch (ExecutionException e) {
+            throw new RemoteException("Waiting for the commit of write " + writeId + " failed", e);
+        }
+    }
+
+    /**
+     * The implementation of the remote method
+     * @param writeId the id of the write returned by {@link #setValue(int)}
+     * @return the logical timestamp of the commit of the write, -1 if it is not committed yet
+     * @throws RemoteException if the id is unknown or too old to be remembered
+     */
+    @Override
+    public int pollCommit(long writeId) throws RemoteException {
+        synchronized (writeLock) {
+            if (writeId <= 0 || writeId > valuesAdded) {
+                throw new RemoteException("Unknown write " + writeId);
+            }
+        }
+        int slot = (int) (writeId % commitTimestamps.length);
+        long slotId = commitIds.get(slot);
+        if (slotId == writeId) {
+            int timestamp = commitTimestamps[slot];
+            // the slot may have been reused by a newer write while it was read
+            if (commitIds.get(slot) == writeId) {
+                return timestamp;
+            }
+        } else if (slotId < writeId) {
+            return -1;
+        }
+        throw new RemoteException("The commit of write " + writeId + " is not remembered anymore");
+    }
+
+    /**
+     * The implementation of the remote method
+     * @param listener the remote {@link IValueListener}
+     * @return true if the listener was not registered
+     * @throws RemoteException if the mutual exclusion algorithm is not the Lamport one
+     */
+    @Override
+    public boolean addValueListener(IValueListener listener) throws RemoteException {
+        if (options.getMutex() != MutexAlgorithm.LAMPORT) {
+            throw new RemoteException("The values are pushed with the Lamport algorithm only, not with "
+                    + options.getMutex());
+        }
+        return valueListeners.add(listener);
+    }
+
+    /**
+     * The implementation of the remote method
+     * @param listener the remote {@link IValueListener}
      * @throws RemoteException
      */
-    private void sendRequest(int newValue) throws RemoteException {
+    @Override
+    public void removeValueListener(IValueListener listener) throws RemoteException {
+        valueListeners.remove(listener);
+    }
+
+    /**
+     * @param writeId the id of a write
+     * @return true if the write is committed. Called by the event loop only
+     */
+    private boolean isCommitted(long writeId) {
+        return writeId <= valuesCommitted || commitIds.get((int) (writeId % commitTimestamps.length)) >= writeId;
+    }
+
+    /**
+     * @param writeId the id of a committed write
+     * @return the logical timestamp of the commit of the write
+     */
+    private int commitTimestamp(long writeId) {
+        return commitTimestamps[(int) (writeId % commitTimestamps.length)];
+    }
+
+    /**
+     * Records the commit of the write of the client and notifies the callers waiting for it
+     * @param writeId the id of the write
+     * @param timestamp the logical timestamp of the commit
+     */
+    private void commitWrite(long writeId, int timestamp) {
+        int slot = (int) (writeId % commitTimestamps.length);
+        commitTimestamps[slot] = timestamp;
+        commitIds.set(slot, writeId);
+        List<Runnable> waiters = commitWaiters.remove(writeId);
+        if (waiters != null) {
+            waiters.forEach(Runnable::run);
+        }
+    }
+
+    /**
+     * Moves {@link #valuesCommitted} past the writes committed after it, gives their slots back to the writers and
+     * completes the {@link ReadConsistency#SESSION} reads whose preceding writes are all committed
+     */
+    private void advanceCommitted() {
+        long committed = valuesCommitted;
+        while (commitIds.get((int) ((committed + 1) % commitTimestamps.length)) == committed + 1) {
+            committed++;
+        }
+        if (committed > valuesCommitted) {
+            writeSlots.release((int) (committed - valuesCommitted));
+        }
+        valuesCommitted = committed;
+        while (!sessionReads.isEmpty() && sessionReads.peek().writeId <= committed) {
+            sessionReads.poll().task.run();
+        }
+    }
+
+    /**
+     * Adds the value set by the client to a local request.
+     * If batching is enabled and the newest local request did not get the critical section yet, the value joins it
+     * and will be committed in the same critical section (the last value of a batch wins). Otherwise a new request
+     * is created; with a linger time, it waits for more values before being sent, unless it gets full first.
+     * @param shard the {@link Shard} of the key
+     * @param writeId the id of the write
+     * @param newValue the value to set
+     */
+    private void addValue(Shard shard, long writeId, int newValue) {
+        LocalRequest openRequest = shard.openRequest;
+        if (openRequest != null && openRequest.size < options.getBatchMaxSize()) {
+            openRequest.add(writeId, newValue);
+            if (openRequest.lingering && openRequest.size == options.getBatchMaxSize()) {
+                sendRequest(openRequest);
+            }
+            return;
+        }
+        LocalRequest request = new LocalRequest(shard, options.getBatchMaxSize());
+        request.add(writeId, newValue);
+        shard.openRequest = request;
+        if (options.getBatchMaxSize() > 1 && options.getBatchLingerMillis() > 0) {
+            request.lingering = true;
+            eventLoop.schedule(() -> {
+                if (request.lingering) {
+                    sendRequest(request);
+                }
+            }, options.getBatchLingerMillis());
+        } else {
+            sendRequest(request);
+        }
+    }
+
+    /**
+     * This method is called when the user desires to modify the value stored by {@link ValueManager}s.
+     * Asks the {@link MutualExclusion} algorithm for the critical section, which informs the other
+     * {@link ValueManager}s of the system of the request.
+     * The request messages are sent in parallel, the method does not wait for them to be delivered.
+     * If the maximum number of the pending requests of the key is reached, the request waits for one of them to get
+     * the critical section before being sent.
+     * @param request the local request to send
+     */
+    private void sendRequest(LocalRequest request) {
+        request.lingering = false;
+        Shard shard = request.shard;
+        if (shard.pendingRequests >= options.getMaxPendingRequests()) {
+            shard.waitingRequests.add(request);
+            return;
+        }
         localTime++;
-        nbAcks = 0;
-        criticalSectionRequested = true;
-        this.newValue = newValue;
-        Message requestMsg = new Message(localTime, MessageType.REQUEST, port);
-        pendingRequests.put(port, requestMsg);
+        localRequests.put(localTime, request);
+        shard.pendingRequests++;
+        request.sentNanos = System.nanoTime();
+        shard.mutex.request(localTime);
+    }
 
-        LOG.log(Level.INFO, () -> localTimeStr() + "Sending the "
-                + requestMsg.getMessageType().name()  + " to other nodes");
-        Iterator it = portManager.entrySet().iterator();
-        while (it.hasNext()) {
-            Map.Entry pair = (Map.Entry)it.next();
-            IValueManager manager = (IValueManager) pair.getValue();
-            manager.acceptMessage(requestMsg);
+    /**
+     * Returns the {@link Shard} of the key, creating it if the key is not known yet. Called by the event loop only
+     * @param key the key
+     * @return the {@link Shard} of the key
+     */
+    private Shard shard(int key) {
+        Shard shard = shards.get(key);
+        if (shard == null) {
+            shard = new Shard(key);
+            shards.put(key, shard);
         }
+        return shard;
+    }
+
+    /**
+     * @param key the key
+     * @return the last value of the key committed, with its commit timestamp and writer
+     */
+    private ValueSnapshot snapshot(int key) {
+        Shard shard = shards.get(key);
+        return shard == null ? ValueSnapshot.INITIAL : shard.snapshot;
     }
 
     /**
@@ -203,77 +882,394 @@ public class ValueManager extends UnicastRemoteObject implements IValueManager {
      */
     @Override
     public int getValue() throws RemoteException {
-        return value;
+        return get(Constants.DEFAULT_KEY);
+    }
+
+    /**
+     * The implementation of the remote method
+     * @param key the key
+     * @return the value of the key
+     * @throws RemoteException
+     */
+    @Override
+    public int get(int key) throws RemoteException {
+        return snapshot(key).getValue();
     }
 
     /**
      * The implementation of the remote method
+     * @return the last value committed, with its commit timestamp and writer
+     * @throws RemoteException
+     */
+    @Override
+    public ValueSnapshot getSnapshot() throws RemoteException {
+        return snapshot(Constants.DEFAULT_KEY);
+    }
+
+    /**
+     * The implementation of the remote method.
+     * A {@link ReadConsistency#LOCAL} read is served at once, the other ones are handed to the event loop and the
+     * method waits for them to be ready
+     * @param consistency the {@link ReadConsistency} of the read
+     * @return the {@link ValueSnapshot} read
+     * @throws RemoteException if the consistency level cannot be reached in time
+     */
+    @Override
+    public ValueSnapshot getValue(ReadConsistency consistency) throws RemoteException {
+        return get(Constants.DEFAULT_KEY, consistency);
+    }
+
+    /**
+     * The implementation of the remote method.
+     * A {@link ReadConsistency#LOCAL} read is served at once, the other ones are handed to the event loop and the
+     * method waits for them to be ready. A {@link ReadConsistency#SESSION} read waits for the writes of all the keys
+     * set before it
+     * @param key the key
+     * @param consistency the {@link ReadConsistency} of the read
+     * @return the {@link ValueSnapshot} of the key read
+     * @throws RemoteException if the consistency level cannot be reached in time
+     */
+    @Override
+    public ValueSnapshot get(int key, ReadConsistency consistency) throws RemoteException {
+        long start = System.nanoTime();
+        ValueSnapshot result;
+        if (consistency == ReadConsistency.LOCAL) {
+            result = snapshot(key);
+        } else {
+            CompletableFuture<ValueSnapshot> future = new CompletableFuture<>();
+            if (consistency == ReadConsistency.SESSION) {
+                long writeId;
+                synchronized (writeLock) {
+                    writeId = valuesAdded;
+                }
+                eventLoop.execute(() -> {
+                    if (writeId <= valuesCommitted) {
+                        future.complete(snapshot(key));
+                    } else {
+                        sessionReads.add(new CommitWaiter(writeId, () -> future.complete(snapshot(key))));
+                    }
+                });
+            } else {
+                eventLoop.execute(() -> {
+                    Shard shard = shard(key);
+                    localTime++;
+                    shard.mutex.read(localTime, () -> future.complete(shard.snapshot));
+                });
+            }
+            result = await(future, consistency);
+        }
+        readCounts[consistency.ordinal()].increment();
+        readNanos[consistency.ordinal()].add(System.nanoTime() - start);
+        return result;
+    }
+
+    /**
+     * The implementation of the remote method
+     * @param consistency the {@link ReadConsistency}
+     * @return the mean latency of the reads in nanoseconds, 0 if no read was served with this level yet
+     * @throws RemoteException
+     */
+    @Override
+    public long getReadLatency(ReadConsistency consistency) throws RemoteException {
+        long count = readCounts[consistency.ordinal()].sum();
+        return count == 0 ? 0 : readNanos[consistency.ordinal()].sum() / count;
+    }
+
+    /**
+     * Waits for the read to be ready
+     * @param future the result of the read
+     * @param consistency the {@link ReadConsistency} of the read, for the error message
+     * @return the {@link ValueSnapshot} read
+     * @throws RemoteException if the read is not ready in time or the waiting thread is interrupted
+     */
+    private static ValueSnapshot await(CompletableFuture<ValueSnapshot> future, ReadConsistency consistency)
+            throws RemoteException {
+        try {
+            return future.get(Constants.READ_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException(consistency + " read interrupted", e);
+        } catch (ExecutionException | TimeoutException e) {
+            throw new RemoteException(consistency + " read failed", e);
+        }
+    }
+
+    /**
+     * The implementation of the remote method.
+     * The {@link Message} is queued to the event loop, the method returns without waiting for it to be handled
      * @param message the {@link Message} sent by some remote {@link IValueManager}
      * @throws RemoteException
      */
     public void acceptMessage(Message message) throws RemoteException {
-        LOG.log(Level.INFO, () -> localTimeStr() + "message received");
+        receive(message);
+    }
+
+    /**
+     * Queues the {@link Message} received from some remote {@link IValueManager} to the event loop
+     * @param message the received {@link Message}
+     */
+    private void receive(Message message) {
+        eventLoop.execute(() -> handleMessage(message));
+    }
+
+    /**
+     * Applies the {@link Message} sent by some remote {@link IValueManager}. Called by the event loop only
+     * @param message the {@link Message} to handle
+     */
+    private void handleMessage(Message message) {
+        metrics.messageReceived(message.getMessageType());
+        if (removedPorts.contains(message.getEmitterPort())) {
+            // sent before the failure was declared, the algorithms already forgot the peer
+            return;
+        }
+        if (failureDetector != null) {
+            failureDetector.heartbeat(message.getEmitterPort(), System.currentTimeMillis());
+        }
+        if (message.getMessageType() == MessageType.HEARTBEAT) {
+            return;
+        }
         updateLocalTime(message.getTimestamp());
-        LOG.log(Level.INFO, () -> localTimeStr()
-                + message.getMessageType().name()
-                + " from " + message.getEmitterPort());
-        switch (message.getMessageType()) {
-            case REQUEST:
-                pendingRequests.put(message.getEmitterPort(), message);
-                portManager.get(message.getEmitterPort()).acceptMessage(
-                        new Message(localTime, MessageType.ACKNOWLEDGEMENT, port));
-                break;
-            case ACKNOWLEDGEMENT:
-                nbAcks++;
-                checkCriticalSection();
-                break;
-            case LIBERATION:
-                pendingRequests.remove(message.getEmitterPort());
-                LiberationMessage libMessage = (LiberationMessage) message;
-                this.value = libMessage.getNewValue();
-                checkCriticalSection();
-                break;
-            default:
-                LOG.log(Level.SEVERE, "Unknown message type");
-        }
-    }
-
-    /**
-     * This method checks if the current {@link ValueManager} can get the access to the critical section.
-     * If it does, updates the value stored by all the {@link ValueManager}s of the system and sends the liberation
-     * messages to them.
-     * @throws RemoteException
+        if (trace != null) {
+            trace.message(EventTrace.RECEIVE, localTime, message, message.getEmitterPort());
+        }
+        shard(message.getKey()).mutex.onMessage(message);
+    }
+
+    /**
+     * Sends a heartbeat to every peer and declares failed the silent ones. Called by the event loop periodically.
+     * The heartbeats do not tick the logical clock
      */
-    private void checkCriticalSection() throws RemoteException {
-        if(criticalSectionRequested && nbAcks == nbNodes-1) {
-            int localRequestTime = pendingRequests.get(port).getTimestamp();
-            for (Map.Entry<Integer, Message> entry : pendingRequests.entrySet()) {
-                // check if the local request is the oldest one
-                boolean localTimeGreater = localRequestTime > entry.getValue().getTimestamp();
-                // if there are more than one request with the same timestamps, the one with the smaller id (port) will
-                // get the access to the critical section
-                boolean localTimeEqualsIdGreater = (localRequestTime == entry.getValue().getTimestamp())
-                        && (port > entry.getValue().getEmitterPort());
-                if (localTimeGreater || localTimeEqualsIdGreater) {
-                    return;
-                }
+    private void heartbeat() {
+        transport.broadcast(new Message(localTime, MessageType.HEARTBEAT, port));
+        metrics.messagesSent(MessageType.HEARTBEAT, ports.length);
+        failureDetector.check(System.currentTimeMillis());
+    }
+
+    /**
+     * Removes a failed peer from the system: its link is closed and the algorithm of every key stops waiting for it.
+     * Called by the event loop only
+     * @param failed the port of the failed peer
+     */
+    private void onPeerFailed(int failed) {
+        removeMember(failed, true);
+    }
+
+    /**
+     * Adds a node to the members of the system: it is linked and the algorithm of every key waits for it from now
+     * on. Called by the event loop only
+     * @param member the port of the node
+     */
+    private void addMember(int member) {
+        int[] peers = ports;
+        if (member == port || indexOf(peers, member) >= 0) {
+            return;
+        }
+        // a node which failed or left may join again
+        removedPorts.remove(member);
+        int[] members = Arrays.copyOf(peers, peers.length + 1);
+        members[peers.length] = member;
+        ports = members;
+        nbNodes++;
+        transport.connect(member);
+        LOG.log(Level.INFO, () -> localTimeStr() + "Node " + member + " joined the system");
+        if (trace != null) {
+            trace.member(EventTrace.JOIN, localTime, member);
+        }
+        shards.forEachValue(shard -> shard.mutex.onPeerJoined(member));
+    }
+
+    /**
+     * Removes a node from the members of the system: its link is closed and the algorithm of every key stops
+     * waiting for it. Called by the event loop only
+     * @param member the port of the node
+     * @param failed true if the node failed, false if it left the system
+     */
+    private void removeMember(int member, boolean failed) {
+        int[] peers = ports;
+        int index = indexOf(peers, member);
+        if (index < 0 || !removedPorts.add(member)) {
+            return;
+        }
+        if (failed) {
+            LOG.log(Level.WARNING, () -> localTimeStr() + "Node " + member + " failed, removed from the system");
+        } else {
+            LOG.log(Level.INFO, () -> localTimeStr() + "Node " + member + " left the system");
+        }
+        if (trace != null) {
+            trace.member(failed ? EventTrace.FAIL : EventTrace.LEAVE, localTime, member);
+        }
+        int[] live = new int[peers.length - 1];
+        System.arraycopy(peers, 0, live, 0, index);
+        System.arraycopy(peers, index + 1, live, index, live.length - index);
+        ports = live;
+        nbNodes--;
+        transport.disconnect(member);
+        metrics.removePeer(member);
+        if (failureDetector != null) {
+            failureDetector.remove(member);
+        }
+        shards.forEachValue(shard -> shard.mutex.onPeerFailed(member));
+    }
+
+    /**
+     * @param ports ports of nodes
+     * @param port a port
+     * @return the index of the port in the array, -1 if it is not there
+     */
+    private static int indexOf(int[] ports, int port) {
+        for (int i = 0; i < ports.length; i++) {
+            if (ports[i] == port) {
+                return i;
             }
-            // the current ValueManager's requests gets the access to the critical section
-            // the local request is the oldest one
-            LOG.log(Level.INFO, "Entering in the critical section");
-            this.value = newValue;
-            pendingRequests.remove(port);
-            criticalSectionRequested = false;
-            nbAcks = 0;
-            // inform other nodes of the system
-            LOG.log(Level.INFO, () -> localTimeStr() + "Updating value in other nodes");
-            Iterator it = portManager.entrySet().iterator();
-            while (it.hasNext()) {
-                Map.Entry pair = (Map.Entry)it.next();
-                IValueManager manager = (IValueManager)pair.getValue();
-                manager.acceptMessage(new LiberationMessage(localTime, MessageType.LIBERATION, port, newValue));
+        }
+        return -1;
+    }
+
+    /**
+     * Executes the critical section of the local request: commits the value of the request.
+     * Once it is done, the next waiting local request of the key can be sent.
+     * @param shard the {@link Shard} of the key of the request
+     * @param requestTimestamp the timestamp of the request which got the critical section
+     * @return the {@link LiberationMessage} to send to the other nodes if the algorithm liberates the critical section
+     * with a message
+     */
+    private LiberationMessage enterCriticalSection(Shard shard, int requestTimestamp) {
+        LocalRequest request = localRequests.remove(requestTimestamp);
+        shard.pendingRequests--;
+        metrics.criticalSectionEntered(System.nanoTime() - request.sentNanos);
+        localTime++;
+        shard.commit(request.lastValue(), localTime, port);
+        for (int i = 0; i < request.size; i++) {
+            commitWrite(request.writeIds[i], localTime);
+        }
+        advanceCommitted();
+        if (shard.openRequest == request) {
+            shard.openRequest = null;
+        }
+        if (trace != null) {
+            trace.enter(localTime, shard.key, requestTimestamp, request.lastValue());
+        }
+        LiberationMessage liberation = new LiberationMessage(localTime, MessageType.LIBERATION, port,
+                requestTimestamp, request.lastValue());
+        // a request slot of the key is free, send the next waiting request
+        if (!shard.waitingRequests.isEmpty()) {
+            sendRequest(shard.waitingRequests.poll());
+        }
+        return liberation;
+    }
+
+    /**
+     * Sets the listener notified of every value committed
+     * @param commitListener the listener, null to remove it
+     */
+    void setCommitListener(CommitListener commitListener) {
+        this.commitListener = commitListener;
+    }
+
+    /**
+     * Stops the {@link ValueManager}: unexports it, closes the links with the other nodes and stops the event loop
+     * @throws NoSuchObjectException if the {@link ValueManager} is not exported anymore
+     */
+    void shutdown() throws NoSuchObjectException {
+        unexportObject(this, true);
+        transport.shutdown();
+        valueListeners.shutdown();
+        closeLog();
+        metrics.unregister();
+        eventLoop.shutdown();
+    }
+
+    /**
+     * Stops the {@link ValueManager} once no remote call is in progress anymore
+     */
+    private void stopWhenIdle() {
+        try {
+            while (!unexportObject(this, false)) {
+                Thread.sleep(Constants.SEND_RETRY_MILLIS);
+            }
+            transport.shutdown();
+            valueListeners.shutdown();
+            closeLog();
+            metrics.unregister();
+            eventLoop.shutdown();
+        } catch (NoSuchObjectException e) {
+            LOG.log(Level.WARNING, e.getMessage(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writes the snapshot of the state and closes the {@link WriteAheadLog}, if any, from the event loop.
+     * Waits for it to be done
+     */
+    void closeLog() {
+        if (wal == null) {
+            return;
+        }
+        CompletableFuture<Void> closed = new CompletableFuture<>();
+        eventLoop.execute(() -> {
+            if (wal != null) {
+                wal.close();
+                wal = null;
+            }
+            closed.complete(null);
+        });
+        try {
+            closed.get(Constants.READ_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            LOG.log(Level.WARNING, "Unable to close the write-ahead log", e);
+        }
+    }
+
+    /**
+     * Gives the last committed value of every key to the listener
+     * @param listener the listener
+     */
+    private void forEachValue(CommitListener listener) {
+        shards.forEachValue(shard -> {
+            ValueSnapshot snapshot = shard.snapshot;
+            if (snapshot != ValueSnapshot.INITIAL) {
+                listener.committed(shard.key, snapshot.getValue(), snapshot.getTimestamp(),
+                        snapshot.getWriterPort());
             }
-            LOG.log(Level.INFO, () -> localTimeStr() + "Value updated, new value: " + value);
+        });
+    }
+
+    /**
+     * Reads a gauge of the metrics. Called by the event loop only
+     * @param gauge the gauge
+     * @return the value of the gauge
+     */
+    private int gauge(ValueManagerMetrics.Gauge gauge) {
+        if (gauge == ValueManagerMetrics.Gauge.LOGICAL_CLOCK) {
+            return localTime;
+        }
+        int[] sum = new int[1];
+        shards.forEachValue(shard -> {
+            switch (gauge) {
+                case PENDING_REQUESTS:
+                    sum[0] += shard.pendingRequests;
+                    break;
+                case WAITING_REQUESTS:
+                    sum[0] += shard.waitingRequests.size();
+                    break;
+                default:
+                    sum[0] += shard.mutex.getQueueDepth();
+            }
+        });
+        return sum[0];
+    }
+
+    /**
+     * Makes sure the current logical time is covered by a reservation of the {@link WriteAheadLog}, before it is
+     * used by a {@link Message}
+     */
+    private void reserveClock() {
+        if (wal != null) {
+            wal.reserveClock(localTime);
         }
     }
 
@@ -295,4 +1291,234 @@ public class ValueManager extends UnicastRemoteObject implements IValueManager {
         return "[" + localTime + "] ";
     }
 
+    /**
+     * Sets the system property if it is not set yet
+     * @param name the name of the property
+     * @param value the default value
+     */
+    private static void setDefaultProperty(String name, int value) {
+        if (System.getProperty(name) == null) {
+            System.setProperty(name, Integer.toString(value));
+        }
+    }
+
+    /**
+     * A task waiting for a write of the client and all the older ones to be committed
+     */
+    private static class CommitWaiter implements Comparable<CommitWaiter> {
+
+        /**
+         * The id of the awaited write
+         */
+        private final long writeId;
+
+        /**
+         * The task to run once the write is committed
+         */
+        private final Runnable task;
+
+        CommitWaiter(long writeId, Runnable task) {
+            this.writeId = writeId;
+            this.task = task;
+        }
+
+        @Override
+        public int compareTo(CommitWaiter other) {
+            return Long.compare(writeId, other.writeId);
+        }
+    }
+
+    /**
+     * This class represents the value of a key and the state of its mutual exclusion algorithm. It offers the
+     * services of the current {@link ValueManager} to the algorithm, marking the sent {@link Message}s with its key.
+     * Only used from the event loop, except {@link #snapshot}
+     */
+    private class Shard implements MutualExclusion.Context {
+
+        /**
+         * The key of the value
+         */
+        private final int key;
+
+        /**
+         * The mutual exclusion algorithm deciding when the local requests of the key get the critical section
+         */
+        private final MutualExclusion mutex;
+
+        /**
+         * The last value of the key committed, with its commit timestamp and writer.
+         * Replaced by the event loop only, volatile so that the readers get it from any thread without waiting for
+         * the event loop
+         */
+        private volatile ValueSnapshot snapshot = ValueSnapshot.INITIAL;
+
+        /**
+         * Number of the local requests of the key sent which did not get the critical section yet
+         */
+        private int pendingRequests;
+
+        /**
+         * The local requests of the key which could not be sent because the maximum number of the pending requests
+         * was reached. They are sent in order as soon as a pending request gets the critical section
+         */
+        private final Deque<LocalRequest> waitingRequests = new ArrayDeque<>();
+
+        /**
+         * The newest local request of the key which did not get the critical section yet and still accepts values
+         * (batching). null if there is no such request
+         */
+        private LocalRequest openRequest;
+
+        /**
+         * Constructor
+         * @param key the key of the value
+         */
+        Shard(int key) {
+            this.key = key;
+            mutex = options.getMutex().create(this, options);
+        }
+
+        @Override
+        public int getPort() {
+            return port;
+        }
+
+        @Override
+        public int getNbNodes() {
+            return nbNodes;
+        }
+
+        @Override
+        public int[] getPeers() {
+            return ports;
+        }
+
+        @Override
+        public int getLocalTime() {
+            return localTime;
+        }
+
+        @Override
+        public long getNanoTime() {
+            return System.nanoTime();
+        }
+
+        @Override
+        public void send(int port, Message message) {
+            reserveClock();
+            message.setKey(key);
+            if (trace != null) {
+                trace.message(EventTrace.SEND, localTime, message, port);
+            }
+            transport.send(port, message);
+            metrics.messagesSent(message.getMessageType(), 1);
+        }
+
+        @Override
+        public void broadcast(Message message) {
+            reserveClock();
+            message.setKey(key);
+            if (trace != null) {
+                trace.message(EventTrace.BROADCAST, localTime, message, 0);
+            }
+            transport.broadcast(message);
+            metrics.messagesSent(message.getMessageType(), ports.length);
+        }
+
+        @Override
+        public LiberationMessage enterCriticalSection(int requestTimestamp) {
+            return ValueManager.this.enterCriticalSection(this, requestTimestamp);
+        }
+
+        /**
+         * Publishes the value committed by some node as the new {@link ValueSnapshot} of the key, unless a more
+         * recent one is already published
+         * @param value the committed value
+         * @param timestamp the logical timestamp of the commit
+         * @param writerPort the port of the node which committed the value
+         */
+        @Override
+        public void commit(int value, int timestamp, int writerPort) {
+            if (snapshot.isOlderThan(timestamp, writerPort)) {
+                snapshot = new ValueSnapshot(value, timestamp, writerPort);
+                if (wal != null) {
+                    wal.logCommit(key, value, timestamp, writerPort);
+                }
+                CommitListener listener = commitListener;
+                if (listener != null) {
+                    listener.committed(key, value, timestamp, writerPort);
+                }
+                valueListeners.committed(key, snapshot);
+            }
+        }
+
+        @Override
+        public ValueSnapshot getSnapshot() {
+            return snapshot;
+        }
+    }
+
+    /**
+     * This class represents a request emitted by the current {@link ValueManager} waiting for the critical section.
+     * It holds the batch of the values to commit once the request gets the critical section
+     */
+    private static class LocalRequest {
+
+        /**
+         * The key of the values
+         */
+        private final Shard shard;
+
+        /**
+         * The ids of the writes of the batch, in the order the client set them
+         */
+        private final long[] writeIds;
+
+        /**
+         * The last value set by the client: the one committed once the request gets the critical section
+         */
+        private int lastValue;
+
+        /**
+         * Number of the values of the batch
+         */
+        private int size;
+
+        /**
+         * true while the request waits for more values before being sent
+         */
+        private boolean lingering;
+
+        /**
+         * The time the request was sent, in nanoseconds
+         */
+        private long sentNanos;
+
+        /**
+         * Constructor
+         * @param shard the key of the values
+         * @param capacity maximum number of the values of the batch
+         */
+        LocalRequest(Shard shard, int capacity) {
+            this.shard = shard;
+            writeIds = new long[capacity];
+        }
+
+        /**
+         * Adds the value to the batch
+         * @param writeId the id of the write
+         * @param value the value to set
+         */
+        void add(long writeId, int value) {
+            writeIds[size++] = writeId;
+            lastValue = value;
+        }
+
+        /**
+         * @return the value to keep once the request gets the critical section
+         */
+        int lastValue() {
+            return lastValue;
+        }
+    }
 }
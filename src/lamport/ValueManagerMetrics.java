@@ -0,0 +1,308 @@
+package lamport;
+
+import utils.Constants;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToIntFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * This class collects the metrics of a {@link ValueManager} and exposes them through JMX.
+ *
+ * DESCRIPTION:
+ * - The counters and the {@link LatencyHistogram}s are updated by the threads doing the work (event loop, sender
+ * threads of the {@link RmiTransport}) without allocating, so the metrics are always enabled.
+ * - The gauges describing the state of the {@link ValueManager} (pending requests, logical clock) are read from its
+ * event loop when a JMX client asks for them, so that nothing is maintained for them. The depth of the queue of the
+ * event loop, the number of the tasks it executed and their mean service time are kept by the {@link EventLoop}.
+ * - The rate of the logical clock is computed by the event loop over a fixed window, so that every JMX client reads the
+ * same rate however often it polls.
+ * - Registered in the platform MBean server as "lamport:type=ValueManager,port=PORT" while the
+ * {@link ValueManager} runs.
+ *
+ * Authors: Samuel Mayor, Alexandra Korukova
+ */
+class ValueManagerMetrics implements ValueManagerMetricsMXBean {
+
+    private static final Logger LOG = Logger.getLogger(ValueManagerMetrics.class.getName());
+
+    private static final MessageType[] MESSAGE_TYPES = MessageType.values();
+
+    /**
+     * The gauges of the {@link ValueManager}, read from its event loop
+     */
+    enum Gauge {
+        PENDING_REQUESTS,
+        WAITING_REQUESTS,
+        REQUEST_QUEUE_DEPTH,
+        LOGICAL_CLOCK
+    }
+
+    /**
+     * The port of the {@link ValueManager}
+     */
+    private final int port;
+
+    /**
+     * The event loop of the {@link ValueManager} and the function reading its gauges from the loop
+     */
+    private final EventLoop eventLoop;
+    private final ToIntFunction<Gauge> gauges;
+
+    /**
+     * Number of the {@link Message}s received and sent, for every {@link MessageType}
+     */
+    private final LongAdder[] received = newAdders(MESSAGE_TYPES.length);
+    private final LongAdder[] sent = newAdders(MESSAGE_TYPES.length);
+
+    /**
+     * Time from the sending of a local request to its entry in the critical section
+     */
+    private final LatencyHistogram criticalSectionLatency = new LatencyHistogram();
+
+    /**
+     * Duration of the remote calls delivering the messages, for every peer. The keys are their ports
+     */
+    private final Map<Integer, LatencyHistogram> peerCallLatencies = new ConcurrentHashMap<>();
+
+    /**
+     * The logical clock and the time in nanoseconds of the last sample of the clock, taken by the event loop
+     */
+    private int sampleClock;
+    private long sampleNanos;
+
+    /**
+     * Number of the ticks of the logical clock per second between the last two samples
+     */
+    private volatile double clockRate;
+
+    /**
+     * The name of the MBean, null while it is not registered
+     */
+    private ObjectName name;
+
+    /**
+     * Constructor
+     * @param port the port of the {@link ValueManager}
+     * @param eventLoop the event loop of the {@link ValueManager}
+     * @param gauges reads a gauge of the {@link ValueManager}, called from its event loop
+     */
+    ValueManagerMetrics(int port, EventLoop eventLoop, ToIntFunction<Gauge> gauges) {
+        this.port = port;
+        this.eventLoop = eventLoop;
+        this.gauges = gauges;
+    }
+
+    /**
+     * Registers the MBean in the platform MBean server. The {@link ValueManager} works without it if it fails
+     */
+    void register() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName objectName = new ObjectName("lamport:type=ValueManager,port=" + port);
+            if (server.isRegistered(objectName)) {
+                // left by a previous instance of the same port in this process
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(this, objectName);
+            name = objectName;
+            eventLoop.execute(this::sampleClock);
+            eventLoop.scheduleRepeated(this::sampleClock, Constants.CLOCK_RATE_WINDOW_MILLIS);
+        } catch (JMException e) {
+            LOG.log(Level.WARNING, "Unable to register the metrics", e);
+        }
+    }
+
+    /**
+     * Unregisters the MBean from the platform MBean server, if it is registered
+     */
+    void unregister() {
+        if (name == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (JMException e) {
+            LOG.log(Level.WARNING, "Unable to unregister the metrics", e);
+        }
+        name = null;
+    }
+
+    /**
+     * Counts a received {@link Message}
+     * @param type the type of the message
+     */
+    void messageReceived(MessageType type) {
+        received[type.ordinal()].increment();
+    }
+
+    /**
+     * Counts sent {@link Message}s
+     * @param type the type of the messages
+     * @param count number of the messages
+     */
+    void messagesSent(MessageType type, int count) {
+        sent[type.ordinal()].add(count);
+    }
+
+    /**
+     * Records the entry of a local request in the critical section
+     * @param nanos the time from the sending of the request to its entry in the critical section, in nanoseconds
+     */
+    void criticalSectionEntered(long nanos) {
+        criticalSectionLatency.record(nanos);
+    }
+
+    /**
+     * Returns the histogram of the remote calls to a peer, to be kept by the thread calling it
+     * @param peer the port of the peer
+     * @return the histogram of the calls to the peer
+     */
+    LatencyHistogram peerCallLatency(int peer) {
+        return peerCallLatencies.computeIfAbsent(peer, p -> new LatencyHistogram());
+    }
+
+    /**
+     * Forgets the calls to a peer which was removed from the system
+     * @param peer the port of the peer
+     */
+    void removePeer(int peer) {
+        peerCallLatencies.remove(peer);
+    }
+
+    @Override
+    public int getPort() {
+        return port;
+    }
+
+    @Override
+    public Map<String, Long> getMessagesReceived() {
+        return counts(received);
+    }
+
+    @Override
+    public Map<String, Long> getMessagesSent() {
+        return counts(sent);
+    }
+
+    @Override
+    public LatencySummary getCriticalSectionLatency() {
+        return criticalSectionLatency.summary();
+    }
+
+    @Override
+    public Map<Integer, LatencySummary> getPeerCallLatencies() {
+        Map<Integer, LatencySummary> summaries = new TreeMap<>();
+        peerCallLatencies.forEach((peer, histogram) -> summaries.put(peer, histogram.summary()));
+        return summaries;
+    }
+
+    @Override
+    public int getPendingRequests() {
+        return gauge(Gauge.PENDING_REQUESTS);
+    }
+
+    @Override
+    public int getWaitingRequests() {
+        return gauge(Gauge.WAITING_REQUESTS);
+    }
+
+    @Override
+    public int getRequestQueueDepth() {
+        return gauge(Gauge.REQUEST_QUEUE_DEPTH);
+    }
+
+    @Override
+    public int getEventLoopQueueDepth() {
+        return eventLoop.getQueueDepth();
+    }
+
+    @Override
+    public long getEventLoopTasksExecuted() {
+        return eventLoop.getProcessedCount();
+    }
+
+    @Override
+    public long getEventLoopServiceNanos() {
+        return eventLoop.getMeanServiceNanos();
+    }
+
+    @Override
+    public int getLogicalClock() {
+        return gauge(Gauge.LOGICAL_CLOCK);
+    }
+
+    @Override
+    public double getClockAdvanceRate() {
+        return clockRate;
+    }
+
+    /**
+     * Samples the logical clock and computes its rate since the previous sample. Called by the event loop every
+     * {@link Constants#CLOCK_RATE_WINDOW_MILLIS}, so that all the JMX clients read the same rate
+     */
+    private void sampleClock() {
+        int clock = gauges.applyAsInt(Gauge.LOGICAL_CLOCK);
+        long now = System.nanoTime();
+        if (sampleNanos != 0) {
+            clockRate = (clock - sampleClock) * 1e9 / Math.max(1, now - sampleNanos);
+        }
+        sampleClock = clock;
+        sampleNanos = now;
+    }
+
+    /**
+     * Reads a gauge from the event loop and waits for it
+     * @param gauge the gauge
+     * @return the value of the gauge, -1 if the event loop did not read it in time
+     */
+    private int gauge(Gauge gauge) {
+        CompletableFuture<Integer> value = new CompletableFuture<>();
+        eventLoop.execute(() -> value.complete(gauges.applyAsInt(gauge)));
+        try {
+            return value.get(Constants.READ_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return -1;
+        } catch (ExecutionException | TimeoutException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @param adders counters of the messages, for every {@link MessageType}
+     * @return the counters by name of their {@link MessageType}
+     */
+    private static Map<String, Long> counts(LongAdder[] adders) {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (MessageType type : MESSAGE_TYPES) {
+            counts.put(type.name(), adders[type.ordinal()].sum());
+        }
+        return counts;
+    }
+
+    /**
+     * @param count number of the adders
+     * @return new adders
+     */
+    static LongAdder[] newAdders(int count) {
+        LongAdder[] adders = new LongAdder[count];
+        for (int i = 0; i < count; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+}
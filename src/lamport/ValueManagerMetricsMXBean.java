@@ -0,0 +1,82 @@
+package lamport;
+
+import java.util.Map;
+
+/**
+ * The management interface of the metrics of a {@link ValueManager}, registered in the platform MBean server under
+ * the name "lamport:type=ValueManager,port=PORT" (see jconsole, or any JMX client).
+ *
+ * Authors: Samuel Mayor, Alexandra Korukova
+ */
+public interface ValueManagerMetricsMXBean {
+
+    /**
+     * @return the port of the {@link ValueManager}
+     */
+    int getPort();
+
+    /**
+     * @return number of the {@link Message}s received so far, for every {@link MessageType}
+     */
+    Map<String, Long> getMessagesReceived();
+
+    /**
+     * @return number of the {@link Message}s sent so far, for every {@link MessageType}. A broadcast counts one
+     * message per peer
+     */
+    Map<String, Long> getMessagesSent();
+
+    /**
+     * @return the latencies from the sending of a local request to its entry in the critical section
+     */
+    LatencySummary getCriticalSectionLatency();
+
+    /**
+     * @return the latencies of the {@link IValueManager#acceptMessage(Message)} calls, for every peer. Empty with
+     * the {@link TransportType#NIO} transport
+     */
+    Map<Integer, LatencySummary> getPeerCallLatencies();
+
+    /**
+     * @return number of the local requests sent which did not get the critical section yet, all keys together
+     */
+    int getPendingRequests();
+
+    /**
+     * @return number of the local requests waiting for a pending request of their key to get the critical section
+     * before being sent, all keys together
+     */
+    int getWaitingRequests();
+
+    /**
+     * @return number of the requests of the system held by the {@link MutualExclusion} algorithms, all keys
+     * together
+     */
+    int getRequestQueueDepth();
+
+    /**
+     * @return number of the tasks waiting to be executed by the event loop
+     */
+    int getEventLoopQueueDepth();
+
+    /**
+     * @return number of the tasks executed by the event loop so far
+     */
+    long getEventLoopTasksExecuted();
+
+    /**
+     * @return mean time spent by the event loop executing a task since the start, in nanoseconds
+     */
+    long getEventLoopServiceNanos();
+
+    /**
+     * @return the logical clock of the {@link ValueManager}
+     */
+    int getLogicalClock();
+
+    /**
+     * @return number of the ticks of the logical clock per second over the last
+     * {@link utils.Constants#CLOCK_RATE_WINDOW_MILLIS}, 0 until the end of the first window
+     */
+    double getClockAdvanceRate();
+}
@@ -0,0 +1,77 @@
+package lamport;
+
+import java.io.Serializable;
+
+/**
+ * This class represents the value stored by a {@link IValueManager} at some point, with the information telling how
+ * recent it is: the logical timestamp of its commit and the port of the node which committed it.
+ * The snapshots are immutable, so they can be read from any thread without synchronization.
+ * The commits are ordered by their timestamps, then by the ports of their writers
+ *
+ * Authors: Samuel Mayor, Alexandra Korukova
+ */
+public final class ValueSnapshot implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The snapshot of a {@link IValueManager} which did not see any commit yet
+     */
+    public static final ValueSnapshot INITIAL = new ValueSnapshot(0, 0, 0);
+
+    private final int value;
+
+    private final int timestamp;
+
+    private final int writerPort;
+
+    /**
+     * Constructor
+     * @param value the committed value
+     * @param timestamp the logical timestamp of the commit
+     * @param writerPort the port of the node which committed the value
+     */
+    public ValueSnapshot(int value, int timestamp, int writerPort) {
+        this.value = value;
+        this.timestamp = timestamp;
+        this.writerPort = writerPort;
+    }
+
+    /**
+     * @param timestamp the logical timestamp of a commit
+     * @param writerPort the port of the node which committed the value
+     * @return true if the commit is more recent than the one of this snapshot
+     */
+    public boolean isOlderThan(int timestamp, int writerPort) {
+        return timestamp > this.timestamp || (timestamp == this.timestamp && writerPort > this.writerPort);
+    }
+
+    /**
+     * Getter
+     * @return the committed value
+     */
+    public int getValue() {
+        return value;
+    }
+
+    /**
+     * Getter
+     * @return the logical timestamp of the commit, 0 if there was no commit
+     */
+    public int getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Getter
+     * @return the port of the node which committed the value, 0 if there was no commit
+     */
+    public int getWriterPort() {
+        return writerPort;
+    }
+
+    @Override
+    public String toString() {
+        return value + " (committed by " + writerPort + " at " + timestamp + ")";
+    }
+}
@@ -0,0 +1,356 @@
+package lamport;
+
+import utils.Constants;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.IntSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class represents the durable state of a {@link ValueManager}: the values committed and its logical clock,
+ * from which a restarted {@link ValueManager} recovers.
+ *
+ * DESCRIPTION:
+ * - The log is an append-only file of fixed size, mapped in memory: appending a record is a memory write. The mapped
+ * pages belong to the operating system, so the records survive a crash of the process at once. A background thread
+ * forces the written pages to the disk every {@link Constants#WAL_FLUSH_MILLIS} (group commit): a crash of the
+ * machine loses the records of this interval at most, and no message waits for the disk.
+ * - Every commit of a value (local or remote) is logged. The clock is logged by reservations: a record allows the
+ * clock to reach a bound {@link Constants#WAL_CLOCK_RESERVE} ticks ahead, and only passing the bound logs (and forces)
+ * a new one. A recovered clock starts at the last bound, so it never goes backwards, whatever was lost.
+ * - When the log is full, a compact snapshot of the last value of every key and of the clock bound is written to a
+ * separate mapped file, atomically replaced, and the log starts over with a new epoch. Every record holds a checksum
+ * computed with the epoch of the log, so the records of the previous epochs left in the file, like a torn last record,
+ * end the replay. A snapshot is also written when the {@link ValueManager} stops.
+ * - The recovery reads the snapshot, then replays the records of the log of the same epoch, up to the first damaged
+ * one. The clock records of the epoch found after it still count, so a damaged record cannot move the clock back.
+ * - Only used from the event loop, except the forcing thread.
+ *
+ * Files (in the directory given by the "wal" option): node-PORT.wal (the log) and node-PORT.snapshot.
+ *
+ * Authors: Samuel Mayor, Alexandra Korukova
+ */
+class WriteAheadLog implements Closeable {
+
+    private static final Logger LOG = Logger.getLogger(WriteAheadLog.class.getName());
+
+    // identifies the files
+    private static final int MAGIC = 0x50525257;
+    // magic and epoch
+    private static final int HEADER_SIZE = 2 * Integer.BYTES;
+    // the types of the records
+    private static final byte COMMIT = 1;
+    private static final byte CLOCK = 2;
+    // type, key, value, timestamp, writer's port, checksum
+    private static final int COMMIT_SIZE = 1 + 5 * Integer.BYTES;
+    // type, clock bound, checksum
+    private static final int CLOCK_SIZE = 1 + 2 * Integer.BYTES;
+    // size of a value in the snapshot: key, value, timestamp, writer's port
+    private static final int ENTRY_SIZE = 4 * Integer.BYTES;
+
+    private final Path snapshotPath;
+    private final FileChannel channel;
+    private final MappedByteBuffer log;
+
+    /**
+     * Give the current clock and the last value of every key, for the snapshots
+     */
+    private final IntSupplier clock;
+    private final Consumer<CommitListener> values;
+
+    /**
+     * Forces the written pages to the disk
+     */
+    private final ScheduledExecutorService flusher;
+
+    /**
+     * The epoch of the log, incremented by every snapshot
+     */
+    private int epoch;
+
+    /**
+     * The clock may not exceed this bound until a new reservation is logged
+     */
+    private int clockBound;
+
+    /**
+     * true if records were written since the last forcing
+     */
+    private volatile boolean dirty;
+
+    /**
+     * Constructor. Opens the files, creating them if they do not exist
+     * @param directory the directory of the files
+     * @param port the port of the {@link ValueManager}, naming its files
+     * @param clock gives the current logical clock of the {@link ValueManager}
+     * @param values gives the last value of every key of the {@link ValueManager} to a {@link CommitListener}
+     * @throws IOException if the files cannot be opened
+     */
+    WriteAheadLog(Path directory, int port, IntSupplier clock, Consumer<CommitListener> values) throws IOException {
+        Files.createDirectories(directory);
+        Path logPath = directory.resolve("node-" + port + ".wal");
+        snapshotPath = directory.resolve("node-" + port + ".snapshot");
+        this.clock = clock;
+        this.values = values;
+        channel = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        log = channel.map(FileChannel.MapMode.READ_WRITE, 0, Constants.WAL_SIZE);
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "wal-" + port);
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, Constants.WAL_FLUSH_MILLIS, Constants.WAL_FLUSH_MILLIS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Reads the snapshot and replays the log. Must be called once, before anything is logged
+     * @param listener gets the recovered values, in the order they were committed
+     * @return the recovered logical clock: no timestamp used before the restart is greater
+     * @throws IOException if the snapshot cannot be read
+     */
+    int recover(CommitListener listener) throws IOException {
+        int recovered = 0;
+        int snapshotEpoch = 0;
+        if (Files.exists(snapshotPath)) {
+            try (FileChannel snapshotChannel = FileChannel.open(snapshotPath, StandardOpenOption.READ)) {
+                MappedByteBuffer snapshot = snapshotChannel.map(FileChannel.MapMode.READ_ONLY, 0,
+                        snapshotChannel.size());
+                if (snapshot.getInt() != MAGIC) {
+                    throw new IOException("Not a snapshot: " + snapshotPath);
+                }
+                snapshotEpoch = snapshot.getInt();
+                recovered = snapshot.getInt();
+                int count = snapshot.getInt();
+                for (int i = 0; i < count; i++) {
+                    listener.committed(snapshot.getInt(), snapshot.getInt(), snapshot.getInt(), snapshot.getInt());
+                }
+            }
+        }
+        int records = 0;
+        if (log.getInt(0) == MAGIC && log.getInt(Integer.BYTES) == snapshotEpoch) {
+            epoch = snapshotEpoch;
+            log.position(HEADER_SIZE);
+            while (log.remaining() >= CLOCK_SIZE) {
+                int start = log.position();
+                byte type = log.get();
+                if (type == COMMIT && log.remaining() >= COMMIT_SIZE - 1) {
+                    int key = log.getInt();
+                    int value = log.getInt();
+                    int timestamp = log.getInt();
+                    int writerPort = log.getInt();
+                    if (log.getInt() != checksum(type, key, value, timestamp, writerPort)) {
+                        log.position(start);
+                        break;
+                    }
+                    listener.committed(key, value, timestamp, writerPort);
+                    recovered = Math.max(recovered, timestamp);
+                } else if (type == CLOCK) {
+                    int bound = log.getInt();
+                    if (log.getInt() != checksum(type, bound, 0, 0, 0)) {
+                        log.position(start);
+                        break;
+                    }
+                    recovered = Math.max(recovered, bound);
+                } else {
+                    log.position(start);
+                    break;
+                }
+                records++;
+            }
+            // a damaged record ends the replay of the values, not the reservations of the clock written after it
+            recovered = Math.max(recovered, clockBoundAfter(log.position()));
+        } else {
+            // the log is new, or older than the snapshot: its records are in the snapshot
+            epoch = snapshotEpoch;
+            startLog();
+        }
+        int replayed = records;
+        int clockRecovered = recovered;
+        LOG.log(Level.INFO, () -> "Recovered clock " + clockRecovered + " (" + replayed + " records replayed)");
+        clockBound = recovered;
+        reserveClock(recovered);
+        return recovered;
+    }
+
+    /**
+     * Logs the commit of a value
+     * @param key the key of the value
+     * @param value the committed value
+     * @param timestamp the logical timestamp of the commit
+     * @param writerPort the port of the node which committed the value
+     */
+    void logCommit(int key, int value, int timestamp, int writerPort) {
+        if (log.remaining() < COMMIT_SIZE) {
+            snapshot();
+        }
+        log.put(COMMIT);
+        log.putInt(key);
+        log.putInt(value);
+        log.putInt(timestamp);
+        log.putInt(writerPort);
+        log.putInt(checksum(COMMIT, key, value, timestamp, writerPort));
+        dirty = true;
+    }
+
+    /**
+     * Makes sure the clock may reach the given time, logging and forcing a new reservation if it passes the bound
+     * @param time the logical clock of the {@link ValueManager}
+     */
+    void reserveClock(int time) {
+        if (time < clockBound) {
+            return;
+        }
+        if (log.remaining() < CLOCK_SIZE) {
+            snapshot();
+        }
+        clockBound = time + Constants.WAL_CLOCK_RESERVE;
+        log.put(CLOCK);
+        log.putInt(clockBound);
+        log.putInt(checksum(CLOCK, clockBound, 0, 0, 0));
+        // rare: once every WAL_CLOCK_RESERVE ticks
+        log.force();
+    }
+
+    /**
+     * Writes the snapshot and starts the log over with a new epoch
+     */
+    void snapshot() {
+        Entries entries = new Entries();
+        values.accept(entries);
+        int count = entries.count;
+        Path temporary = snapshotPath.resolveSibling(snapshotPath.getFileName() + ".tmp");
+        try {
+            try (FileChannel snapshotChannel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer snapshot = snapshotChannel.map(FileChannel.MapMode.READ_WRITE, 0,
+                        4 * Integer.BYTES + (long) count * ENTRY_SIZE);
+                snapshot.putInt(MAGIC);
+                snapshot.putInt(epoch + 1);
+                snapshot.putInt(Math.max(clockBound, clock.getAsInt()));
+                snapshot.putInt(count);
+                snapshot.asIntBuffer().put(entries.fields, 0, count * 4);
+                snapshot.force();
+            }
+            Files.move(temporary, snapshotPath, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // the log cannot start over without the snapshot
+            throw new IllegalStateException("Unable to write the snapshot " + snapshotPath, e);
+        }
+        epoch++;
+        startLog();
+        LOG.log(Level.INFO, () -> "Snapshot of " + count + " values written, epoch " + epoch);
+    }
+
+    /**
+     * Stops the forcing thread, writes a snapshot and closes the log
+     */
+    @Override
+    public void close() {
+        flusher.shutdownNow();
+        snapshot();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Getter
+     * @return the position in the log file of the next record
+     */
+    int getPosition() {
+        return log.position();
+    }
+
+    /**
+     * Searches the rest of the log for the valid clock records of the current epoch
+     * @param from the position where the search starts
+     * @return the greatest clock bound found, 0 if none
+     */
+    private int clockBoundAfter(int from) {
+        int bound = 0;
+        for (int position = from; position <= log.limit() - CLOCK_SIZE; position++) {
+            if (log.get(position) == CLOCK) {
+                int candidate = log.getInt(position + 1);
+                if (log.getInt(position + 1 + Integer.BYTES) == checksum(CLOCK, candidate, 0, 0, 0)) {
+                    bound = Math.max(bound, candidate);
+                }
+            }
+        }
+        return bound;
+    }
+
+    /**
+     * Writes the header of a new empty log of the current epoch
+     */
+    private void startLog() {
+        log.putInt(0, MAGIC);
+        log.putInt(Integer.BYTES, epoch);
+        log.position(HEADER_SIZE);
+        log.force();
+    }
+
+    /**
+     * Forces the written records to the disk, if any. Called by the forcing thread
+     */
+    private void flush() {
+        if (dirty) {
+            dirty = false;
+            log.force();
+        }
+    }
+
+    /**
+     * @return the checksum of a record of the current epoch
+     */
+    private int checksum(byte type, int a, int b, int c, int d) {
+        int hash = epoch * 31 + type;
+        hash = hash * 0x9E3779B9 + a;
+        hash = hash * 0x9E3779B9 + b;
+        hash = hash * 0x9E3779B9 + c;
+        hash = hash * 0x9E3779B9 + d;
+        return hash ^ (hash >>> 16) ^ MAGIC;
+    }
+
+    /**
+     * Collects the values written to a snapshot
+     */
+    private static class Entries implements CommitListener {
+
+        /**
+         * The fields of the values, 4 ints per value as written in the snapshot
+         */
+        private int[] fields = new int[64];
+        private int count;
+
+        @Override
+        public void committed(int key, int value, int timestamp, int writerPort) {
+            if ((count + 1) * 4 > fields.length) {
+                fields = Arrays.copyOf(fields, fields.length * 2);
+            }
+            int offset = count * 4;
+            fields[offset] = key;
+            fields[offset + 1] = value;
+            fields[offset + 2] = timestamp;
+            fields[offset + 3] = writerPort;
+            count++;
+        }
+    }
+}
@@ -11,11 +11,87 @@ public class Constants {
     // host
     public static final String SERVER_HOST = "localhost";
 
+    // the key of the value read and written by the methods without a key
+    public static final int DEFAULT_KEY = 0;
+
+    // maximum number of the requests a value manager may have pending at the same time for a key
+    public static final int MAX_PENDING_REQUESTS = 8;
+    // maximum number of the values committed in one critical section (1: no batching)
+    public static final int BATCH_MAX_SIZE = 1;
+    // time in milliseconds a new batch waits for more values before being requested
+    public static final long BATCH_LINGER_MILLIS = 0;
+
+    // duration in milliseconds of the lease kept by a node after an uncontended critical section (0: no lease), must
+    // be shorter than the silence after which a peer is declared failed
+    public static final long LEASE_MILLIS = 0;
+
+    // maximum time in milliseconds a read waits for its consistency level to be reached
+    public static final long READ_TIMEOUT_MILLIS = 10000;
+
+    // number of the most recent writes of a value manager whose commit timestamp can still be retrieved: also the
+    // maximum number of the writes in flight at the same time, a new write waits for the older ones beyond it
+    public static final int COMMIT_HISTORY = 4096;
+
+    // size in bytes of the write-ahead log file: a snapshot is written each time it is full
+    public static final int WAL_SIZE = 8 * 1024 * 1024;
+    // interval in milliseconds between two forcings of the write-ahead log to the disk (group commit)
+    public static final long WAL_FLUSH_MILLIS = 5;
+    // number of the ticks of the logical clock reserved by one record of the write-ahead log
+    public static final int WAL_CLOCK_RESERVE = 10000;
+
+    // duration in milliseconds of the window over which the metrics compute the rate of the logical clock
+    public static final long CLOCK_RATE_WINDOW_MILLIS = 1000;
+
+    // number of the events kept by the ring buffer of the event trace (32 bytes each)
+    public static final int TRACE_CAPACITY = 256 * 1024;
+
+    // interval in milliseconds between two heartbeats sent to every peer (0: no failure detection)
+    public static final long HEARTBEAT_INTERVAL_MILLIS = 200;
+    // silence in milliseconds tolerated on top of the mean interval between the heartbeats of a peer
+    public static final long HEARTBEAT_PAUSE_MILLIS = 1000;
+    // number of the last intervals between the heartbeats of a peer the failure detector keeps
+    public static final int FAILURE_DETECTOR_WINDOW = 100;
+    // minimum standard deviation in milliseconds of the intervals between the heartbeats
+    public static final double FAILURE_DETECTOR_MIN_DEVIATION_MILLIS = 100;
+    // suspicion level (phi) from which a silent peer is declared failed
+    public static final double PHI_THRESHOLD = 8;
+    // interval in milliseconds between two attempts to deliver a message to an unreachable peer
+    public static final long SEND_RETRY_MILLIS = 100;
+    // time in milliseconds after which a peer which still cannot be delivered a message is declared failed
+    public static final long SEND_DEADLINE_MILLIS = 3000;
+    // maximum time in milliseconds to connect to a peer or to wait for the answer of a remote call
+    public static final int CALL_TIMEOUT_MILLIS = 2000;
+    // maximum time in milliseconds a leaving value manager waits for the commit of its writes
+    public static final long LEAVE_TIMEOUT_MILLIS = 30000;
+    // maximum time in milliseconds a member waits for the end of a join before accepting the join of another node
+    public static final long JOIN_TIMEOUT_MILLIS = 30000;
+
+    // the NIO transport of a value manager listens on the port of its registry + this offset
+    public static final int NIO_PORT_OFFSET = 1000;
+
+    // interval in milliseconds between two registrations of the value cache of a client with its value manager,
+    // which tell the cache whether it was removed: the longest time it serves stale values after a removal
+    public static final long VALUE_CACHE_RENEW_MILLIS = 1000;
+
+    // default settings of the load generator of the client: number of the clients per value manager, fraction of
+    // the operations which are reads, duration of the run in seconds and number of the distinct keys
+    public static final int LOAD_CLIENTS = 4;
+    public static final double LOAD_READ_RATIO = 0.5;
+    public static final long LOAD_DURATION_SECONDS = 10;
+    public static final int LOAD_KEYS = 1;
+
     // commands entered by the user
     public static final char PRINT = 'P';
+    public static final char SNAPSHOT = 'S';
+    public static final char READ = 'R';
     public static final char WRITE = 'W';
+    public static final char COMMIT = 'C';
+    public static final char GET_KEY = 'G';
+    public static final char SET_KEY = 'K';
     public static final char QUIT = 'Q';
     public static final char LOOKUP = 'L';
+    public static final char MEMBERS = 'M';
+    public static final char LEAVE = 'X';
 
     // the message to be displayed if the user enters the wrong command
     public static final String UNKNOWN_COMMAND = "Unknown command";